@@ -0,0 +1,137 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.core.Anchor;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns the anchors of the exhibits. ARCore updates every live anchor every frame, so each image gets at
+ * most one anchor (at its center), shared by everything placed on it, and the anchor is detached as soon
+ * as the last user releases it.
+ *
+ * In debug mode the anchors of the session are compared with the registry every frame, and anchors that
+ * nobody owns (created outside the registry, or never detached) are logged as leaks.
+ *
+ * Only used from the UI thread.
+ */
+public class AnchorRegistry {
+
+    private static final String TAG = "AnchorRegistry";
+
+    // One anchor and the number of acquire() calls that haven't been released yet.
+    private static class Entry {
+        final Anchor anchor;
+        int refCount = 1;
+
+        Entry(Anchor anchor) {
+            this.anchor = anchor;
+        }
+    }
+
+    private final Map<AugmentedImage, Entry> anchors = new HashMap<>();
+    // Anchors that were already reported as leaked, so each one is only logged once. Anchor.equals compares
+    // the underlying ARCore anchor, so the objects returned by Session.getAllAnchors match.
+    private final Set<Anchor> reportedLeaks = new HashSet<>();
+    // Reused by onFrame.
+    private final Set<Anchor> ownedAnchors = new HashSet<>();
+
+    private boolean debug = BuildConfig.DEBUG;
+
+    private int lastSessionAnchorCount = 0;
+    private int maxLiveAnchorCount = 0;
+    private long createCount = 0;
+    private long reuseCount = 0;
+    private long leakCount = 0;
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    // The anchor at the center of the image, created if the image has none yet. Every acquire() must be
+    // matched by a release().
+    public Anchor acquire(AugmentedImage image) {
+        Entry entry = anchors.get(image);
+        if (entry != null) {
+            entry.refCount++;
+            reuseCount++;
+            return entry.anchor;
+        }
+        entry = new Entry(image.createAnchor(image.getCenterPose()));
+        anchors.put(image, entry);
+        createCount++;
+        maxLiveAnchorCount = Math.max(maxLiveAnchorCount, anchors.size());
+        return entry.anchor;
+    }
+
+    // Releases an anchor acquired for the image, the anchor is detached once nobody uses it anymore.
+    public void release(AugmentedImage image) {
+        Entry entry = anchors.get(image);
+        if (entry == null) {
+            Log.w(TAG, "Released an anchor that was never acquired for image " + image.getIndex());
+            return;
+        }
+        if (--entry.refCount == 0) {
+            anchors.remove(image);
+            entry.anchor.detach();
+        }
+    }
+
+    // Detaches all anchors, e.g. when the activity is destroyed.
+    public void clear() {
+        for (Entry entry : anchors.values()) {
+            entry.anchor.detach();
+        }
+        anchors.clear();
+        reportedLeaks.clear();
+    }
+
+    public int getLiveAnchorCount() {
+        return anchors.size();
+    }
+
+    // Called once per frame. In debug mode, logs the number of live anchors when it changes and reports
+    // the anchors of the session that the registry doesn't own.
+    public void onFrame(Session session) {
+        if (!debug || session == null) {
+            return;
+        }
+        Collection<Anchor> sessionAnchors = session.getAllAnchors();
+        if (sessionAnchors.size() != lastSessionAnchorCount) {
+            lastSessionAnchorCount = sessionAnchors.size();
+            Log.d(TAG, "Live anchors: session=" + lastSessionAnchorCount + " registry=" + anchors.size());
+        }
+        if (sessionAnchors.size() <= anchors.size()) {
+            return;
+        }
+
+        ownedAnchors.clear();
+        for (Entry entry : anchors.values()) {
+            ownedAnchors.add(entry.anchor);
+        }
+        for (Anchor anchor : sessionAnchors) {
+            if (!ownedAnchors.contains(anchor) && anchor.getTrackingState() != TrackingState.STOPPED
+                    && reportedLeaks.add(anchor)) {
+                leakCount++;
+                Log.w(TAG, "Leaked anchor at " + anchor.getPose() + ", it was not created through the registry or never detached");
+            }
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(
+                prefix + "AnchorRegistry: live=" + anchors.size()
+                        + " maxLive=" + maxLiveAnchorCount
+                        + " created=" + createCount
+                        + " shared=" + reuseCount
+                        + " leaked=" + leakCount
+                        + (debug ? " sessionAnchors=" + lastSessionAnchorCount : ""));
+    }
+}
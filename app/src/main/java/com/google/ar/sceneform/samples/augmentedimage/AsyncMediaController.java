@@ -0,0 +1,388 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import java.io.IOException;
+
+/**
+ * Plays one song or video at a time without ever blocking the calling thread. MediaPlayers are created,
+ * prepared (with prepareAsync), started and released on a dedicated media worker thread. When the new
+ * player is ready it is swapped in and the old one is released, so play() and stop() are safe to call
+ * from onUpdateFrame.
+ *
+ * With a crossfade set, the new player fades in while the old one fades out over that window (equal power,
+ * so the loudness stays level), and stop() fades out, instead of cutting. Switching again in the middle of
+ * a fade drops the player that was fading out and fades out the one that was fading in from where it was.
+ * The latency from play() to the new player starting is measured and printed by stats().
+ *
+ * play(), pause(), resume() and stop() must be called from the UI thread. The OnReadyListener is called
+ * on the UI thread.
+ */
+public class AsyncMediaController {
+
+    private static final String TAG = "AsyncMediaController";
+
+    // Called on the UI thread once the player of the last play() call has started.
+    public interface OnReadyListener {
+        void onReady(MediaPlayer player);
+    }
+
+    // Called on the media worker just before a player that was swapped in is released.
+    public interface OnReleaseListener {
+        void onRelease(MediaPlayer player);
+    }
+
+    // The volume is stepped this often during a crossfade.
+    private static final long FADE_STEP_MILLIS = 20;
+
+    // All controllers share one worker thread, which is also used to release players created elsewhere.
+    private static Handler worker;
+
+    private static synchronized Handler getWorker() {
+        if (worker == null) {
+            HandlerThread workerThread = new HandlerThread("MediaWorker");
+            workerThread.start();
+            worker = new Handler(workerThread.getLooper());
+        }
+        return worker;
+    }
+
+    // Runs work on the media worker, after everything that was already posted to it.
+    public static void postToWorker(Runnable work) {
+        getWorker().post(work);
+    }
+
+    // Releases a player on the media worker instead of the calling thread.
+    public static void releaseAsync(@Nullable MediaPlayer player) {
+        if (player != null) {
+            postToWorker(player::release);
+        }
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Settings applied to every player this controller starts.
+    private volatile boolean looping = false;
+    private volatile long crossfadeMillis = 0;
+    @Nullable private volatile Surface surface;
+    @Nullable private volatile OnReadyListener onReadyListener;
+    @Nullable private volatile OnReleaseListener onReleaseListener;
+
+    // Set by pause(), a paused controller doesn't start players until resume() is called.
+    private volatile boolean paused = false;
+
+    // Incremented (on the UI thread) by every play() and stop(), so the worker can drop work that is out of date.
+    private volatile int generation = 0;
+    // Only used on the UI thread.
+    private int currentResourceId = 0;
+
+    // Only used on the worker thread.
+    @Nullable private MediaPlayer currentPlayer;
+    private int currentPlayerResourceId = 0;
+    @Nullable private MediaPlayer preparingPlayer;
+    // During a crossfade: the player fading out, the volume it started at, and whether currentPlayer fades in.
+    @Nullable private MediaPlayer fadingOutPlayer;
+    private float fadeOutStartVolume = 1;
+    private boolean fadingIn = false;
+    private float currentVolume = 1;
+    private long fadeStartMillis = 0;
+    private final Runnable fadeStep = this::stepFade;
+
+    // Statistics, written on the worker.
+    private long switchCount = 0;
+    private long preparedSwitchCount = 0;
+    private long totalSwitchNanos = 0;
+    private long maxSwitchNanos = 0;
+    private long crossfadeCount = 0;
+
+    public AsyncMediaController(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    // How long the old and new player overlap when switching, 0 (the default) switches at once.
+    public void setCrossfadeMillis(long crossfadeMillis) {
+        this.crossfadeMillis = crossfadeMillis;
+    }
+
+    // The surface videos are rendered to. Leave null for songs.
+    public void setSurface(@Nullable Surface surface) {
+        this.surface = surface;
+    }
+
+    public void setOnReadyListener(@Nullable OnReadyListener onReadyListener) {
+        this.onReadyListener = onReadyListener;
+    }
+
+    public void setOnReleaseListener(@Nullable OnReleaseListener onReleaseListener) {
+        this.onReleaseListener = onReleaseListener;
+    }
+
+    // The raw resource of the last play() call, or 0 if stopped. If that resource can't be opened or
+    // prepared, the resource that is still playing instead (or 0).
+    public int getCurrentResourceId() {
+        return currentResourceId;
+    }
+
+    // Starts playing the raw resource, replacing whatever was playing once the new player is prepared.
+    // preparedPlayer is an already prepared player for the same resource (e.g. from ExhibitPrefetcher),
+    // which is used instead of preparing a new one.
+    public void play(int resourceId, @Nullable MediaPlayer preparedPlayer) {
+        long requestNanos = System.nanoTime();
+        int playGeneration = ++generation;
+        currentResourceId = resourceId;
+        paused = false;
+        postToWorker(
+                () -> {
+                    if (playGeneration != generation) {
+                        // play() or stop() was called again before this even started.
+                        release(preparedPlayer);
+                        return;
+                    }
+                    release(preparingPlayer);
+                    preparingPlayer = null;
+
+                    if (preparedPlayer != null) {
+                        swapIn(preparedPlayer, resourceId, playGeneration, requestNanos, true);
+                        return;
+                    }
+
+                    MediaPlayer player = new MediaPlayer();
+                    try (AssetFileDescriptor afd = context.getResources().openRawResourceFd(resourceId)) {
+                        player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                    } catch (IOException | RuntimeException e) {
+                        Log.e(TAG, "Could not open media resource " + resourceId, e);
+                        player.release();
+                        playFailed(playGeneration);
+                        return;
+                    }
+                    player.setOnPreparedListener(
+                            (MediaPlayer mp) -> {
+                                if (mp != preparingPlayer) {
+                                    return;
+                                }
+                                preparingPlayer = null;
+                                if (playGeneration != generation) {
+                                    mp.release();
+                                    return;
+                                }
+                                swapIn(mp, resourceId, playGeneration, requestNanos, false);
+                            });
+                    player.setOnErrorListener(
+                            (MediaPlayer mp, int what, int extra) -> {
+                                Log.e(TAG, "Media error " + what + "/" + extra + " playing " + resourceId);
+                                if (mp != preparingPlayer) {
+                                    return false;
+                                }
+                                // It failed to prepare.
+                                preparingPlayer = null;
+                                mp.release();
+                                playFailed(playGeneration);
+                                return true;
+                            });
+                    preparingPlayer = player;
+                    player.prepareAsync();
+                });
+    }
+
+    // Pauses the current player, keeping it (and its decoder) around so resume() can continue right away.
+    public void pause() {
+        paused = true;
+        postToWorker(
+                () -> {
+                    if (!paused) {
+                        return;
+                    }
+                    // A paused song resumes at full volume, without the one it was replacing.
+                    endFade();
+                    if (currentPlayer != null && currentPlayer.isPlaying()) {
+                        currentPlayer.pause();
+                    }
+                });
+    }
+
+    // Continues the paused player. The OnReadyListener is called again once it is playing.
+    public void resume() {
+        paused = false;
+        int resumeGeneration = generation;
+        postToWorker(
+                () -> {
+                    if (!paused && currentPlayer != null) {
+                        currentPlayer.start();
+                        notifyReady(currentPlayer, resumeGeneration);
+                    }
+                });
+    }
+
+    // Stops and releases the current player (on the worker), fading it out first if a crossfade is set.
+    // A paused controller is no longer paused, the next play() starts its player.
+    public void stop() {
+        ++generation;
+        currentResourceId = 0;
+        paused = false;
+        postToWorker(
+                () -> {
+                    release(preparingPlayer);
+                    preparingPlayer = null;
+                    fadeOut(currentPlayer);
+                    currentPlayer = null;
+                    currentPlayerResourceId = 0;
+                });
+    }
+
+    public synchronized String stats() {
+        return "switches=" + switchCount
+                + " prepared=" + preparedSwitchCount
+                + " crossfades=" + crossfadeCount
+                + " switchLatency=" + (switchCount == 0 ? 0 : totalSwitchNanos / switchCount / 1_000_000) + "ms"
+                + " (max " + maxSwitchNanos / 1_000_000 + "ms)";
+    }
+
+    // Runs on the worker: starts the new player and releases (or fades out) the one it replaces.
+    private void swapIn(MediaPlayer player, int resourceId, int playGeneration, long requestNanos, boolean prepared) {
+        MediaPlayer oldPlayer = currentPlayer;
+        currentPlayer = player;
+        currentPlayerResourceId = resourceId;
+        boolean crossfade = !paused && fadeOut(oldPlayer);
+
+        player.setLooping(looping);
+        Surface playerSurface = surface;
+        if (playerSurface != null) {
+            player.setSurface(playerSurface);
+        }
+        fadingIn = crossfade;
+        currentVolume = crossfade ? 0 : 1;
+        player.setVolume(currentVolume, currentVolume);
+        if (!paused) {
+            player.start();
+            notifyReady(player, playGeneration);
+        }
+        long switchNanos = System.nanoTime() - requestNanos;
+        synchronized (this) {
+            switchCount++;
+            if (prepared) {
+                preparedSwitchCount++;
+            }
+            totalSwitchNanos += switchNanos;
+            maxSwitchNanos = Math.max(maxSwitchNanos, switchNanos);
+        }
+    }
+
+    // Runs on the worker when the resource of a play() call can't be opened or prepared. The old player
+    // keeps playing, and getCurrentResourceId() goes back to its resource, so a later play() of the failed
+    // resource isn't skipped as already playing.
+    private void playFailed(int playGeneration) {
+        int playingResourceId = currentPlayerResourceId;
+        mainHandler.post(
+                () -> {
+                    if (playGeneration == generation) {
+                        currentResourceId = playingResourceId;
+                    }
+                });
+    }
+
+    // Runs on the worker: fades out player over the crossfade and releases it, or releases it right away
+    // if there is no crossfade or it isn't playing. Returns true if it is fading out.
+    private boolean fadeOut(@Nullable MediaPlayer player) {
+        long fadeMillis = crossfadeMillis;
+        // Only one player fades out at a time, the one from the previous switch goes now.
+        retire(fadingOutPlayer);
+        fadingOutPlayer = null;
+        if (player == null || fadeMillis <= 0 || !isPlaying(player)) {
+            fadingIn = false;
+            retire(player);
+            getWorker().removeCallbacks(fadeStep);
+            return false;
+        }
+        fadingOutPlayer = player;
+        // player is the current one, which may still have been fading in.
+        fadeOutStartVolume = currentVolume;
+        fadingIn = false;
+        fadeStartMillis = SystemClock.uptimeMillis();
+        getWorker().removeCallbacks(fadeStep);
+        getWorker().postDelayed(fadeStep, FADE_STEP_MILLIS);
+        synchronized (this) {
+            crossfadeCount++;
+        }
+        return true;
+    }
+
+    // Runs on the worker every FADE_STEP_MILLIS during a crossfade.
+    private void stepFade() {
+        long fadeMillis = Math.max(1, crossfadeMillis);
+        float t = Math.min(1, (float) (SystemClock.uptimeMillis() - fadeStartMillis) / fadeMillis);
+        // Equal power: the squares of the two volumes add up to 1.
+        if (fadingIn && currentPlayer != null) {
+            currentVolume = (float) Math.sin(t * Math.PI / 2);
+            currentPlayer.setVolume(currentVolume, currentVolume);
+        }
+        if (fadingOutPlayer != null) {
+            float volume = fadeOutStartVolume * (float) Math.cos(t * Math.PI / 2);
+            fadingOutPlayer.setVolume(volume, volume);
+        }
+        if (t < 1) {
+            getWorker().postDelayed(fadeStep, FADE_STEP_MILLIS);
+        } else {
+            endFade();
+        }
+    }
+
+    // Runs on the worker: releases the player fading out and puts the current one at full volume.
+    private void endFade() {
+        getWorker().removeCallbacks(fadeStep);
+        retire(fadingOutPlayer);
+        fadingOutPlayer = null;
+        fadingIn = false;
+        currentVolume = 1;
+        if (currentPlayer != null) {
+            currentPlayer.setVolume(1, 1);
+        }
+    }
+
+    private static boolean isPlaying(MediaPlayer player) {
+        try {
+            return player.isPlaying();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private void notifyReady(MediaPlayer player, int playGeneration) {
+        OnReadyListener listener = onReadyListener;
+        if (listener != null) {
+            mainHandler.post(
+                    () -> {
+                        if (playGeneration == generation) {
+                            listener.onReady(player);
+                        }
+                    });
+        }
+    }
+
+    // Runs on the worker: releases a player that was swapped in, after telling the OnReleaseListener.
+    private void retire(@Nullable MediaPlayer player) {
+        OnReleaseListener listener = onReleaseListener;
+        if (player != null && listener != null) {
+            listener.onRelease(player);
+        }
+        release(player);
+    }
+
+    private static void release(@Nullable MediaPlayer player) {
+        if (player != null) {
+            player.release();
+        }
+    }
+}
@@ -16,14 +16,14 @@
 
 package com.google.ar.sceneform.samples.augmentedimage;
 
-import android.hardware.display.VirtualDisplay;
-import android.media.MediaRecorder;
+import android.Manifest;
+import android.content.pm.PackageManager;
 import android.media.projection.MediaProjection;
 import android.os.Bundle;
-import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
+import android.widget.Button;
 import android.widget.ImageView;
 import com.google.ar.core.AugmentedImage;
 import com.google.ar.core.Frame;
@@ -33,24 +33,20 @@ import com.google.ar.sceneform.rendering.ModelRenderable;
 import com.google.ar.sceneform.samples.common.helpers.SnackbarHelper;
 import com.google.ar.sceneform.ux.ArFragment;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import android.media.MediaPlayer;
 import android.widget.ToggleButton;
-import android.os.Build;
 import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
 import android.os.Environment;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.display.DisplayManager;
 import android.media.projection.MediaProjectionManager;
 import android.util.DisplayMetrics;
 import android.widget.Toast;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.PrintWriter;
 
 /**
  * This application demonstrates using augmented images to place anchor nodes. app to include image
@@ -59,44 +55,67 @@ import java.util.Date;
 /*
 Programmed by Rising Tide Augmented Reality Team (ART) - Robert Brodin, Joseph Turner, Emma Riley, and Nora Rooney - 2019
 AugmentedImage - Video version, detects images and places specific videos (see AugmentedImageFragment). When a different image is detected, the video playing is stopped and a new video is started (specific to the new image).
-Also works with playing audio files instead of video files (see imagePlaysBooleanList in AugmentedImageFragment)
+Also works with playing audio files instead of video files (see the video column of assets/exhibits.txt and ExhibitCatalog)
+Several images can be tracked at once, ExhibitSessionManager decides which of them show their video or model and which one plays its song.
  */
 
 public class AugmentedImageActivity extends AppCompatActivity {
 
+    private static final String TAG = "AugmentedImageActivity";
 
-    // Used to keep track of which video is currently playing (is changed ONLY in AugmentedImageNode)
-    public static Integer augmentedImageVideoPlayerIndex = null;
-    // mediaAugmentedImage is used to check if an image has been detected before, and is also used to remove specific keys from the augmented image hashmap. TODO: This will absolutely have to be changed for placing renderables and keeping renderables placed. This makes sense for videos and music, but not for renderables (ARTGallery)
-    private AugmentedImage mediaAugmentedImage = null;
-    // Both videoRenderable and videoPlacedRenderable are used by AugmentedImageNode, and are declared in this class to only require them to be rendered/loaded once.
+    // videoRenderable is used by AugmentedImageNode, and is declared in this class to only require it to be loaded once.
+    // Each node places its own copy of it.
     public static CompletableFuture<ModelRenderable> videoRenderable;
-    @Nullable public static ModelRenderable videoPlacedRenderable;
+    // The same for pre-keyed videos, which carry their alpha instead of a chroma key background.
+    public static CompletableFuture<ModelRenderable> preKeyedVideoRenderable;
 
-    // audioMediaPlayer and currentSongIndex are used to play audio files (generally from musicList in AugmentedImageFragment)
-    private MediaPlayer audioMediaPlayer;
-    public static Integer currentSongIndex = null;
+    // audioController is used to play audio files (generally from musicList in AugmentedImageFragment)
+    // audioController prepares and releases the songs on a worker thread, so switching songs never blocks the frame.
+    private AsyncMediaController audioController;
+    // The old and new song overlap this long when the visitor moves to another exhibit.
+    private static final long SONG_CROSSFADE_MILLIS = 1500;
 
     // Required ARCore ArFragment and ImageView.
     private ArFragment arFragment;
     private ImageView fitToScanView;
 
-    // Augmented image and its associated center pose anchor, keyed by the augmented image in
-    // the database.
-    private final Map<AugmentedImage, AugmentedImageNode> augmentedImageMap = new HashMap<>();
-    public boolean videoIsPlaying = false;
+    // Keeps the nodes of all the exhibits that are live in the scene, and decides which of them get the video and song.
+    private ExhibitSessionManager exhibitSessionManager;
+    // Loads the media of detected (and neighbouring) exhibits in the background before they are tracked.
+    private ExhibitPrefetcher exhibitPrefetcher;
+    // Times each phase of onUpdateFrame and spreads expensive work over several frames.
+    private final FrameProfiler frameProfiler = new FrameProfiler();
+    // Creates and detaches the anchors of the exhibits, one per image.
+    private final AnchorRegistry anchorRegistry = new AnchorRegistry();
+    // The augmented image databases of the gallery, only the active shard is matched by ARCore.
+    private ImageDatabaseShards imageDatabaseShards;
+
+    // If none of the active shard's paintings has been seen for this long, the next shard is tried.
+    private static final long SHARD_SEARCH_NANOS = 10_000_000_000L;
+    private long lastExhibitSeenNanos = 0;
 
     // DISPLAY_WIDTH and DISPLAY_HEIGHT are set default to 480 by 640, but are changed relative to the size of the phone being used in the onCreate() method.
     private static int DISPLAY_WIDTH = 480;
     private static int DISPLAY_HEIGHT = 640;
 
     private MediaProjection mMediaProjection;
-    private VirtualDisplay mVirtualDisplay;
     private MediaProjection.Callback mMediaProjectionCallback;
     private ToggleButton mToggleButton;
-    private MediaRecorder mMediaRecorder;
+    // Encodes and writes the recording off the UI thread, created the first time the visitor records.
+    private ScreenRecorder screenRecorder;
+    // Keeps the last minute of the capture once the visitor turns on instant replay.
+    private ReplayBuffer replayBuffer;
+    private Button mReplayButton;
+    // Held in memory, at most MAX_SAVE_SECONDS of capture at the bitrate that fits.
+    private static final int REPLAY_BUFFER_BYTES = 32 * 1024 * 1024;
+    private static final int REPLAY_SECONDS = 30;
+    // Keeps the recordings in /sdcard/Recordings under a quota, as segments of RECORDING_SEGMENT_BYTES.
+    private RecordingStore recordingStore;
+    private static final long RECORDINGS_QUOTA_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final long RECORDING_SEGMENT_BYTES = 64L * 1024 * 1024;
 
     private static final int PERMISSION_CODE = 1;
+    private static final int RECORDING_PERMISSION_CODE = 200;
     private int mScreenDensity;
     private MediaProjectionManager mProjectionManager;
 
@@ -106,9 +125,39 @@ public class AugmentedImageActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Everything below looks exhibits up in the catalog, so a broken catalog is reported right away.
+        try {
+            ExhibitCatalog.load(this);
+            imageDatabaseShards = new ImageDatabaseShards(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load the exhibit catalog", e);
+            SnackbarHelper.getInstance().showError(this, "Could not load the exhibit catalog");
+            return;
+        }
+
+        VideoTierSelector.getInstance().init(this);
+
         arFragment = (ArFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
         fitToScanView = findViewById(R.id.image_view_fit_to_scan);
-
+        ((AugmentedImageFragment) arFragment).setImageDatabaseShards(imageDatabaseShards);
+
+        exhibitPrefetcher = new ExhibitPrefetcher(this);
+        audioController = new AsyncMediaController(this);
+        audioController.setCrossfadeMillis(SONG_CROSSFADE_MILLIS);
+        exhibitSessionManager =
+                new ExhibitSessionManager(
+                        this,
+                        arFragment.getArSceneView().getScene(),
+                        exhibitPrefetcher,
+                        audioController,
+                        frameProfiler,
+                        anchorRegistry);
+        // The images of the previous shard are no longer tracked, so their exhibits are removed.
+        imageDatabaseShards.setOnShardSwitchedListener(
+                shard -> {
+                    exhibitSessionManager.clear();
+                    lastExhibitSeenNanos = System.nanoTime();
+                });
         arFragment.getArSceneView().getScene().addOnUpdateListener(this::onUpdateFrame);
 
         DisplayMetrics metrics = new DisplayMetrics();
@@ -118,12 +167,6 @@ public class AugmentedImageActivity extends AppCompatActivity {
         DISPLAY_HEIGHT = metrics.heightPixels;
         DISPLAY_WIDTH = metrics.widthPixels;
 
-        // inits the recorder (settings for recording)
-        initRecorder();
-        Log.d("running", "good!");
-        prepareRecorder();
-        Log.d("running 2", "good! 2");
-
         // Finds button with ID toggle. This can be changed to any button, you will just need to cast it to (RadioButton) or (Button) instead of (ToggleButton).
         mToggleButton = (ToggleButton) findViewById(R.id.toggle);
 
@@ -135,6 +178,12 @@ public class AugmentedImageActivity extends AppCompatActivity {
             }
         });
 
+        // The first press turns instant replay on, the next ones save the last REPLAY_SECONDS. A long
+        // press turns it off.
+        mReplayButton = findViewById(R.id.replay);
+        mReplayButton.setOnClickListener(v -> onReplay());
+        mReplayButton.setOnLongClickListener(v -> onReplayOff());
+
         mMediaProjectionCallback = new MediaProjectionCallback();
     }
 
@@ -142,16 +191,78 @@ public class AugmentedImageActivity extends AppCompatActivity {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (exhibitSessionManager != null) {
+            exhibitSessionManager.destroy();
+            exhibitPrefetcher.shutdown();
+            imageDatabaseShards.shutdown();
+        }
+        anchorRegistry.clear();
+        VideoPlayerPool.getInstance().clear();
+        if (screenRecorder != null) {
+            screenRecorder.stop();
+        }
+        if (replayBuffer != null) {
+            replayBuffer.shutdown();
+        }
+        if (recordingStore != null) {
+            recordingStore.shutdown();
+        }
         if (mMediaProjection != null) {
             mMediaProjection.stop();
             mMediaProjection = null;
         }
     }
 
+    // Releases cached renderables of exhibits that haven't been seen recently when the system is low on memory.
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        RenderableCache.getInstance().onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            VideoPlayerPool.getInstance().clear();
+            if (exhibitSessionManager != null) {
+                exhibitSessionManager.trimMemory();
+            }
+        }
+    }
+
+    // Prints the frame timings and cache statistics, pulled with:
+    //   adb shell dumpsys activity com.google.ar.sceneform.samples.augmentedimage/.AugmentedImageActivity
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        frameProfiler.dump(prefix, writer);
+        writer.println(prefix + "RenderableCache: " + RenderableCache.getInstance().stats());
+        writer.println(prefix + "VideoPlayerPool: " + VideoPlayerPool.getInstance().stats());
+        writer.println(prefix + "VideoTierSelector: " + VideoTierSelector.getInstance().stats());
+        writer.println(prefix + "VideoMetrics: " + VideoMetrics.getInstance().stats());
+        writer.println(prefix + "PictureFrameFactory: " + PictureFrameFactory.getInstance().stats());
+        writer.println(prefix + "CaptureTierSelector: " + CaptureTierSelector.getInstance().stats());
+        if (screenRecorder != null) {
+            writer.println(prefix + "ScreenRecorder: " + screenRecorder.stats());
+        }
+        if (replayBuffer != null) {
+            writer.println(prefix + "ReplayBuffer: " + replayBuffer.stats());
+        }
+        if (recordingStore != null) {
+            writer.println(prefix + "RecordingStore: " + recordingStore.stats());
+        }
+        if (audioController != null) {
+            writer.println(prefix + "AudioController: " + audioController.stats());
+        }
+        if (exhibitSessionManager != null) {
+            writer.println(prefix + "ExhibitSessionManager: " + exhibitSessionManager.stats());
+        }
+        if (imageDatabaseShards != null) {
+            imageDatabaseShards.dump(prefix, writer);
+        }
+        anchorRegistry.dump(prefix, writer);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
-        if (augmentedImageMap.isEmpty()) {
+        if (exhibitSessionManager != null && exhibitSessionManager.isEmpty()) {
             fitToScanView.setVisibility(View.VISIBLE);
         }
     }
@@ -164,24 +275,40 @@ public class AugmentedImageActivity extends AppCompatActivity {
             Toast.makeText(this,
                     "Screen Cast Permission Denied", Toast.LENGTH_SHORT).show();
             mToggleButton.setChecked(false);
+            disableReplay();
             return;
         }
         mMediaProjection = mProjectionManager.getMediaProjection(resultCode, data);
         mMediaProjection.registerCallback(mMediaProjectionCallback, null);
-        mVirtualDisplay = createVirtualDisplay();
-        mMediaRecorder.start();
+        startCapture();
+    }
+
+    // The storage permission is needed to record, the microphone is only recorded if that is allowed too.
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != RECORDING_PERMISSION_CODE || (!mToggleButton.isChecked() && replayBuffer == null)) {
+            return;
+        }
+        if (!hasPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
+            Toast.makeText(this, "Storage Permission Denied", Toast.LENGTH_SHORT).show();
+            mToggleButton.setChecked(false);
+            disableReplay();
+            return;
+        }
+        shareScreen();
     }
 
     // Toggles Screen recording on and off.
     public void onToggleScreenShare(View view) {
         if (((ToggleButton)view).isChecked()) {
-            mProjectionManager = (MediaProjectionManager) getSystemService
-                    (Context.MEDIA_PROJECTION_SERVICE);
+            createRecorder();
             mToggleButton.setBackgroundColor(getResources().getColor(R.color.colorPrimaryDark));
             mToggleButton.setText("   ");
-            shareScreen();
+            if (requestRecordingPermissions()) {
+                shareScreen();
+            }
         } else {
-            mMediaRecorder.reset();
             stopScreenSharing();
             mToggleButton.setText("Off");
             mToggleButton.setVisibility(View.VISIBLE);
@@ -190,122 +317,158 @@ public class AugmentedImageActivity extends AppCompatActivity {
     }
 
 
-    private void shareScreen() {
-        if (mMediaProjection == null) {
-            startActivityForResult(mProjectionManager.createScreenCaptureIntent(), PERMISSION_CODE);
+    // Turns instant replay on, or saves the last REPLAY_SECONDS if it is on.
+    private void onReplay() {
+        if (replayBuffer != null && screenRecorder.isCapturing()) {
+            ReplayBuffer savedBuffer = replayBuffer;
+            recordingStore.startRecording("replay", recording -> {
+                if (recording == null) {
+                    Toast.makeText(this, "Failed to get External Storage", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                savedBuffer.save(REPLAY_SECONDS, recording, this::onRecordingFinished);
+            });
             return;
         }
-        mVirtualDisplay = createVirtualDisplay();
-        mMediaRecorder.start();
+        createRecorder();
+        if (replayBuffer == null) {
+            replayBuffer = new ReplayBuffer(REPLAY_BUFFER_BYTES);
+            screenRecorder.setReplayBuffer(replayBuffer);
+        }
+        Toast.makeText(this, "Instant replay on, press Replay to save the last "
+                + REPLAY_SECONDS + " seconds, long press to turn it off", Toast.LENGTH_SHORT).show();
+        if (requestRecordingPermissions()) {
+            shareScreen();
+        }
+    }
 
+    // Turns instant replay off. The screen keeps being captured if the toggle is recording.
+    private boolean onReplayOff() {
+        if (replayBuffer == null) {
+            return false;
+        }
+        disableReplay();
+        if (!mToggleButton.isChecked()) {
+            screenRecorder.stop();
+        }
+        Toast.makeText(this, "Instant replay off", Toast.LENGTH_SHORT).show();
+        return true;
     }
 
+    // Nothing of the recorder is set up until the visitor records for the first time.
+    private void createRecorder() {
+        if (screenRecorder == null) {
+            mProjectionManager = (MediaProjectionManager) getSystemService
+                    (Context.MEDIA_PROJECTION_SERVICE);
+            screenRecorder = new ScreenRecorder();
+            // Only a path, the directory is checked and created on the store's thread.
+            recordingStore = new RecordingStore(
+                    new File(Environment.getExternalStorageDirectory(), "Recordings"),
+                    RECORDINGS_QUOTA_BYTES, RECORDING_SEGMENT_BYTES);
+        }
+    }
 
-    // Stops screen recording.
-    private void stopScreenSharing() {
-        if (mVirtualDisplay == null) {
-            return;
+    private void disableReplay() {
+        if (replayBuffer != null) {
+            screenRecorder.setReplayBuffer(null);
+            replayBuffer.shutdown();
+            replayBuffer = null;
         }
-        mVirtualDisplay.release();
-        mMediaRecorder.reset();
-        //mMediaRecorder.release();
     }
 
-    // Creates a VirtualDisplay object using the parameters set at the start.
-    private VirtualDisplay createVirtualDisplay () {
-        return mMediaProjection.createVirtualDisplay("MainActivity",
-                DISPLAY_WIDTH, DISPLAY_HEIGHT, mScreenDensity,
-                DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-                mMediaRecorder.getSurface(), null /*Callbacks*/, null /*Handler*/);
+    // Returns true if the storage permission is granted, otherwise asks for it (and the microphone).
+    private boolean requestRecordingPermissions() {
+        if (hasPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
+            return true;
+        }
+        ActivityCompat.requestPermissions(this,
+                new String[]{Manifest.permission.RECORD_AUDIO, Manifest.permission.WRITE_EXTERNAL_STORAGE},
+                RECORDING_PERMISSION_CODE);
+        return false;
     }
 
-// Checks if mToggleButton is clicked. Will have to change mToggleButton to the new button variable if a mToggleButton is not being used.
-private class MediaProjectionCallback extends MediaProjection.Callback {
-    @Override
-    public void onStop() {
-        if (mToggleButton.isChecked()) {
-            mToggleButton.setChecked(false);
-            mMediaRecorder.stop();
-            mMediaRecorder.reset();
+    private void shareScreen() {
+        if (mMediaProjection == null) {
+            startActivityForResult(mProjectionManager.createScreenCaptureIntent(), PERMISSION_CODE);
+            return;
         }
-        mMediaProjection = null;
-        stopScreenSharing();
+        startCapture();
     }
-}
 
-    // Prepares recorder (checks for exceptions)
-    private void prepareRecorder () {
-        try {
-            mMediaRecorder.prepare();
-        } catch (IllegalStateException | IOException e) {
-            e.printStackTrace();
-            finish();
+    // Starts capturing the projection if it isn't yet, and recording a new file if the toggle is on.
+    // The encoders are set up here, not in onCreate.
+    private void startCapture() {
+        // Both may have been turned off while the projection permission was asked for.
+        if (!mToggleButton.isChecked() && replayBuffer == null) {
+            return;
+        }
+        if (!screenRecorder.isCapturing()) {
+            CaptureTierSelector.getInstance().onCaptureStarted();
+            screenRecorder.setTier(CaptureTierSelector.getInstance().getTier());
+            boolean withAudio = hasPermission(Manifest.permission.RECORD_AUDIO);
+            if (!screenRecorder.start(mMediaProjection, DISPLAY_WIDTH, DISPLAY_HEIGHT, mScreenDensity, withAudio)) {
+                Toast.makeText(this, "Failed to start recording", Toast.LENGTH_SHORT).show();
+                mToggleButton.setChecked(false);
+                return;
+            }
+        }
+        if (mToggleButton.isChecked() && !screenRecorder.isRecordingFile()) {
+            recordingStore.startRecording("capture", this::onRecordingCreated);
         }
     }
 
-    // Used to create the desired filePath that the file will be saved in. By default it goes to /sdcard/recordings, but could be changed to anything.
-    public String getFilePath () {
-        // Can change the folder which the video is saved into.
-        final String directory = Environment.getExternalStorageDirectory() + File.separator + "Recordings";
-        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
-            // Toast is just a fancy class that helps print custom error messages.
+    // Called once the store has made room for a new recording, or found the storage isn't available.
+    private void onRecordingCreated(RecordingStore.Recording recording) {
+        if (recording == null) {
             Toast.makeText(this, "Failed to get External Storage", Toast.LENGTH_SHORT).show();
-            return null;
+            mToggleButton.setChecked(false);
+            stopScreenSharing();
+            return;
         }
-        // Using final because the folder variable should NEVER be changed.
-        final File folder = new File(directory);
-        boolean success = true;
-
-        // If the folder doesn't exist, it is created using mkdir().
-        if (!folder.exists()) {
-            success = folder.mkdir();
+        // The visitor may have stopped again in the meantime.
+        if (mToggleButton.isChecked() && screenRecorder.isCapturing() && !screenRecorder.isRecordingFile()) {
+            screenRecorder.startFile(recording, this::onRecordingFinished);
         }
-        String filePath;
+    }
 
-        // Once the folder exists (if it didn't already), the filePath is set to the directory + capture_date.mp4. Capture can be changed quite easily.
-        if (success) {
-            String videoName = ("capture_" + getCurSysDate() + ".mp4");
-            filePath = directory + File.separator + videoName;
-        } else {
-            Toast.makeText(this, "Failed to create Recordings directory", Toast.LENGTH_SHORT).show();
-            return null;
+    // Called once a segment of a recording or a replay has been written.
+    private void onRecordingFinished(File file, boolean success) {
+        if (!success) {
+            Toast.makeText(this, "Failed to save recording", Toast.LENGTH_SHORT).show();
+            return;
         }
-        return filePath;
+        Log.d(TAG, "Saved recording " + file);
     }
 
-    // Gets the date (relative to the device). Will be used for the file name in getFilePath().
-    public String getCurSysDate () {
-        return new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+    // Stops screen recording. The recorder finishes the file in the background, and keeps capturing
+    // while instant replay is on.
+    private void stopScreenSharing() {
+        if (screenRecorder == null) {
+            return;
+        }
+        screenRecorder.stopFile();
+        if (replayBuffer == null) {
+            screenRecorder.stop();
+        }
     }
 
-    // Used for Codec and recording settings!
-    private void initRecorder () {
-        int YOUR_REQUEST_CODE = 200; // could be something else..
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.RECORD_AUDIO, android.Manifest.permission.WRITE_EXTERNAL_STORAGE},
-                    YOUR_REQUEST_CODE);
-
-
-            if (mMediaRecorder == null) {
-                mMediaRecorder = new MediaRecorder();
-            }
+    private boolean hasPermission(String permission) {
+        return ContextCompat.checkSelfPermission(this, permission) == PackageManager.PERMISSION_GRANTED;
+    }
 
-            mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
-            mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-            mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.DEFAULT);
-            mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
-            // Bitrate is set relative to the screen, so it is just the width of the device * the height of the device.
-            mMediaRecorder.setVideoEncodingBitRate(10000000);
-            // Framerate crashed at 60 when testing.
-            mMediaRecorder.setVideoFrameRate(30);
-            // Sets video size relative to the phone.
-            mMediaRecorder.setVideoSize(DISPLAY_WIDTH, DISPLAY_HEIGHT);
-            // Sets file path using the getFilePath() method.
-            mMediaRecorder.setOutputFile(getFilePath());
+// Checks if mToggleButton is clicked. Will have to change mToggleButton to the new button variable if a mToggleButton is not being used.
+private class MediaProjectionCallback extends MediaProjection.Callback {
+    @Override
+    public void onStop() {
+        if (mToggleButton.isChecked()) {
+            mToggleButton.setChecked(false);
+        }
+        mMediaProjection = null;
+        if (screenRecorder != null) {
+            screenRecorder.stop();
         }
     }
-
+}
 
     /**
      * Registered with the Sceneform Scene object, this method is called at the start of each frame.
@@ -313,6 +476,21 @@ private class MediaProjectionCallback extends MediaProjection.Callback {
      * @param frameTime - time since last frame.
      */
     private void onUpdateFrame(FrameTime frameTime) {
+        frameProfiler.beginFrame(frameTime);
+        VideoTierSelector.getInstance().onFrame(frameTime);
+        // The capture size and frame rate follow the frame time while recording.
+        if (screenRecorder != null && screenRecorder.isCapturing()) {
+            CaptureTierSelector.getInstance().onFrame(frameTime);
+            screenRecorder.setTier(CaptureTierSelector.getInstance().getTier());
+        }
+        try {
+            updateAugmentedImages();
+        } finally {
+            frameProfiler.endFrame();
+        }
+    }
+
+    private void updateAugmentedImages() {
         Frame frame = arFragment.getArSceneView().getArFrame();
 
         // If there is no frame or ARCore is not tracking yet, just return.
@@ -321,142 +499,60 @@ private class MediaProjectionCallback extends MediaProjection.Callback {
         }
 
 
+        long phaseStart = frameProfiler.startPhase();
         Collection<AugmentedImage> updatedAugmentedImages =
                 frame.getUpdatedTrackables(AugmentedImage.class);
+        frameProfiler.endPhase(FrameProfiler.Phase.TRACKABLES, phaseStart);
         for (AugmentedImage augmentedImage : updatedAugmentedImages) {
-
-            if (!(AugmentedImageFragment.imagePlaysVideoBooleanList[augmentedImage.getIndex()])) {
-                if (videoIsPlaying) {
-                    if ((AugmentedImageStaticNode.node != null) && (!(AugmentedImageStaticNode.node.nodeMediaPlayer == null)) && augmentedImage.getIndex() != augmentedImageVideoPlayerIndex) {
-                        // Video is stopped.
-                        AugmentedImageStaticNode.node.stopVideo();
-                        // Node that the video is placed on is removed from the scene.
-                        AugmentedImageStaticNode.node.removeChild(AugmentedImageStaticNode.node.videoNode);
-                        // the image that correlates to the video that is being stopped is removed from the hashmap of detected images (makes it so if that same image is detected later, a video will be played)
-                        augmentedImageMap.remove(mediaAugmentedImage);
+            // Image indices are per database, the shard of the image maps them to the exhibits of the catalog.
+            int exhibitIndex = imageDatabaseShards.exhibitIndexOf(augmentedImage);
+            if (exhibitIndex < 0) {
+                // From a database that was switched away from before this image was ever seen.
+                continue;
+            }
+            switch (augmentedImage.getTrackingState()) {
+                case PAUSED:
+                    // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected,
+                    // but not yet tracked.
+                    String text = "Detected Image " + exhibitIndex;
+                    SnackbarHelper.getInstance().showMessage(this, text);
+                    // Start loading the exhibit now so it is ready once the image is tracked.
+                    exhibitPrefetcher.prefetchWithNeighbours(exhibitIndex);
+                    break;
+
+                case TRACKING:
+                    // Have to switch to UI Thread to update View.
+                    fitToScanView.setVisibility(View.GONE);
+
+                    // Create a new node for newly found images. Several images can be live at once, the session
+                    // manager decides which of them show their model or video and which one plays its song.
+                    // Building the node is the most expensive part of the frame, so if the frame is already over
+                    // budget it is deferred to the next frame (once per image, however many frames it waits).
+                    if (!exhibitSessionManager.isActive(augmentedImage)) {
+                        frameProfiler.runOrDefer(
+                                augmentedImage, () -> exhibitSessionManager.activate(augmentedImage, exhibitIndex));
                     }
-                }
-                switch (augmentedImage.getTrackingState()) {
-                    case PAUSED:
-                        // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected,
-                        // but not yet tracked.
-                        String text = "Detected Image " + augmentedImage.getIndex();
-                        SnackbarHelper.getInstance().showMessage(this, text);
-
-                        break;
-
-                    case TRACKING:
+                    break;
 
-                        // Have to switch to UI Thread to update View.
-                        fitToScanView.setVisibility(View.GONE);
+                case STOPPED:
+                    exhibitSessionManager.deactivate(augmentedImage);
+                    exhibitPrefetcher.cancel(exhibitIndex);
+                    break;
 
-                        if (currentSongIndex == null) {
-                            // If there is no song playing, set currentSongIndex to the song that aligns with
-                            // the detected image
-                            currentSongIndex = augmentedImage.getIndex();
-
-                            audioMediaPlayer = MediaPlayer.create(this, AugmentedImageFragment.Music_list[currentSongIndex]);
-                            audioMediaPlayer.start();
-                            // Create a new mediaPlayer object with the correct song
-                            // Start the song
-                        } else if ((currentSongIndex != augmentedImage.getIndex())) {
-
-                            // If the song that is playing does not match up with the song the image it detects
-                            // is assigned to:
-                            // Assign the correct song to currentSongIndex
-                            // Stop playing the song, reset the mediaPlayer object
-                            currentSongIndex = augmentedImage.getIndex();
-                            audioMediaPlayer.stop();
-                            audioMediaPlayer.release();
-                            //audioMediaPlayer = null;
-
-                            audioMediaPlayer = MediaPlayer.create(this, AugmentedImageFragment.Music_list[currentSongIndex]);
-                            audioMediaPlayer.start();
-                            // Recreate the mediaPlayer object with the correct song
-                            // Start the song
-
-                        }
-
-                        // Create a new anchor for newly found images.
-
-                        if (!augmentedImageMap.containsKey(augmentedImage)) {
-                            AugmentedImageNode node = new AugmentedImageNode(this, AugmentedImageFragment.Image_list, augmentedImage.getIndex());
-                            node.setImage(augmentedImage, augmentedImage.getIndex());
-                            augmentedImageMap.put(augmentedImage, node);
-                            arFragment.getArSceneView().getScene().addChild(node);
-                        }
-                        break;
-
-                    case STOPPED:
-
-                        augmentedImageMap.remove(augmentedImage);
+                default:
+            }
+        }
 
-                        break;
+        exhibitSessionManager.updatePriorities(frame.getCamera().getPose());
+        anchorRegistry.onFrame(arFragment.getArSceneView().getSession());
 
-                    default:
-                }
-                // Video is playing
-            } else {
-                //TODO: Make it place the frame corners with the video
-                if(audioMediaPlayer != null) {
-                    audioMediaPlayer.release();
-                    currentSongIndex = null;
-                }
-                switch (augmentedImage.getTrackingState()) {
-                    case PAUSED:
-                        // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected,
-                        // but not yet tracked.
-                        String text = "Detected Image " + augmentedImage.getIndex();
-                        SnackbarHelper.getInstance().showMessage(this, text);
-                        break;
-                    // If an image is detected
-                    case TRACKING:
-                        // Have to switch to UI Thread to update View.
-                        fitToScanView.setVisibility(View.GONE);
-
-                        // Checks if the node that is used for the video is not null, if the node's mediaplayer is not null, and if the current image detected is not the same image as the last image detected.
-                        // This section is used to stop the video from playing.
-                        if(videoIsPlaying) {
-                            if ((AugmentedImageStaticNode.node != null) && (!(AugmentedImageStaticNode.node.nodeMediaPlayer == null)) && augmentedImage.getIndex() != augmentedImageVideoPlayerIndex) {
-                                // Video is stopped.
-                                AugmentedImageStaticNode.node.stopVideo();
-                                // Node that the video is placed on is removed from the scene.
-                                AugmentedImageStaticNode.node.removeChild(AugmentedImageStaticNode.node.videoNode);
-                                // the image that correlates to the video that is being stopped is removed from the hashmap of detected images (makes it so if that same image is detected later, a video will be played)
-                                augmentedImageMap.remove(mediaAugmentedImage);
-                            }
-                        }
-                            // If the augmentedImageMap (HASHMAP) has not seen the image before (the augmentedImage key is not in the hashmap), then a video or audio file is played.
-                            if (!augmentedImageMap.containsKey(augmentedImage)) {
-
-                                AugmentedImageStaticNode.node = new AugmentedImageNode(this, AugmentedImageFragment.Image_list, augmentedImage.getIndex());
-
-                                // Used to check if a video will be played or if an audio file will be played. This, when true, creates a video.
-
-                                if (AugmentedImageFragment.imagePlaysVideoBooleanList[augmentedImage.getIndex()]) {
-                                    // In the event that there is already music playing, the mediaplayer is stopped and released.
-
-                                    // startVideo takes arguments: context, imageIndex, and texture. This method starts the video (using .create()), and places it on the surface.
-                                    AugmentedImageStaticNode.node.startVideo(this, augmentedImage.getIndex(), AugmentedImageStaticNode.node.texture);
-                                    // Set image places the video on a renderable.
-                                    AugmentedImageStaticNode.node.createVideo(this, augmentedImage, augmentedImage.getIndex());
-                                    // augmentedImage is put in a hashmap, will be used to detect if the image has already been detected (deprecated in this version)
-                                    augmentedImageMap.put(augmentedImage, AugmentedImageStaticNode.node);
-                                    arFragment.getArSceneView().getScene().addChild(AugmentedImageStaticNode.node);
-                                    // Fixes the issue of videos not playing with their specific image if that image has been detected before.
-                                    mediaAugmentedImage = augmentedImage;
-                                    videoIsPlaying = true;
-                                }
-                                // Otherwise, an audio file is created and started.
-                            }
-
-                        break;
-                    case STOPPED:
-                        augmentedImageMap.remove(augmentedImage);
-                        break;
-                    default:
-                }
-            }
+        // The visitor may have walked to a part of the gallery that is in another shard.
+        long now = System.nanoTime();
+        if (!exhibitSessionManager.isEmpty() || lastExhibitSeenNanos == 0) {
+            lastExhibitSeenNanos = now;
+        } else if (now - lastExhibitSeenNanos > SHARD_SEARCH_NANOS) {
+            lastExhibitSeenNanos = now;
+            imageDatabaseShards.searchNext();
         }
     }
-}
\ No newline at end of file
+}
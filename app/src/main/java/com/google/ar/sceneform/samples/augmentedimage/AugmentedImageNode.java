@@ -20,6 +20,7 @@ import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import com.google.ar.core.AugmentedImage;
 import com.google.ar.sceneform.AnchorNode;
@@ -28,16 +29,17 @@ import com.google.ar.sceneform.math.Quaternion;
 import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.Color;
 import com.google.ar.sceneform.rendering.ExternalTexture;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.MaterialFactory;
 import com.google.ar.sceneform.rendering.ModelRenderable;
-import java.util.ArrayList;
-import java.util.Arrays;
+import com.google.ar.sceneform.rendering.ShapeFactory;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 
 /**
- * Node for rendering an augmented image. The image is framed by placing the virtual picture frame
- * at the corners of the augmented image trackable.
+ * Node for rendering an augmented image. The image of a video exhibit is framed by a picture frame
+ * built to the extents of the augmented image trackable (see PictureFrameFactory).
  */
 @SuppressWarnings({"AndroidApiChecker"})
 
@@ -48,109 +50,47 @@ public class AugmentedImageNode extends AnchorNode {
     // The augmented image represented by this node.
     private AugmentedImage augmentedImage;
 
-    // We use completable futures here to simplify
-    // the error handling and asynchronous loading.  The loading is started with the
-    // first construction of an instance, and then used when the image is set.
-
-    // Each obj file needs its own CompletableFuture, regardless of whether or not
-    // the obj files are being used on the same augmented image or not (ex: 4 obj files for each of the
-    // corners of a frame and each needs its own CompletableFuture)
-
-
-    // List of CompletableFutures, are used to add new renderables.
-    // Add new CompletableFuture for each OBJ file.
-    private static CompletableFuture<ModelRenderable> sushi;
-    private static CompletableFuture<ModelRenderable> fancyballroom;
-    //private static CompletableFuture<ModelRenderable> fancyballroom_text;
-    private static CompletableFuture<ModelRenderable> beachflag;
-    private static CompletableFuture<ModelRenderable> sunsetmonorail;
-    private static CompletableFuture<ModelRenderable> bigger_elephant;
-    private static CompletableFuture<ModelRenderable> lavaeye;
-    private static CompletableFuture<ModelRenderable> firebreathingchicken;
-    private static CompletableFuture<ModelRenderable> beachcroc;
-    //private static CompletableFuture<ModelRenderable> beachcroc_text;
-    private static CompletableFuture<ModelRenderable> skater;
-    //private static CompletableFuture<ModelRenderable> skater_text;
-    private static CompletableFuture<ModelRenderable> ufosighting;
-    private static CompletableFuture<ModelRenderable> waterfall;
-    private static CompletableFuture<ModelRenderable> couple;
-    private static CompletableFuture<ModelRenderable> birds;
-    private static CompletableFuture<ModelRenderable> frame;
-    private static CompletableFuture<ModelRenderable> frame_ul;
-    private static CompletableFuture<ModelRenderable> frame_ur;
-    private static CompletableFuture<ModelRenderable> frame_ll;
-    private static CompletableFuture<ModelRenderable> frame_lr;
-
-
+    // Renderables are loaded through the shared RenderableCache, which starts the (asynchronous) load the
+    // first time an exhibit is seen and hands the same CompletableFuture to every later node.
+
+    // Parent of everything the exhibit shows at full quality (the model, or the frame and the video). It is
+    // disabled while the exhibit is demoted to its placeholder (see ExhibitSessionManager).
+    private Node contentNode;
+    // The node the model of a non-video exhibit is placed on.
+    private Node modelNode;
+    // A flat, translucent quad the size of the image, shown instead of contentNode while demoted.
+    private Node placeholderNode;
+    // The picture frame of a video exhibit, and the frame it currently shows.
+    private Node frameNode;
+    private CompletableFuture<ModelRenderable> frameRenderable;
+    // Set once setImage or createVideo has built the content, a recycled node only needs to be re-anchored.
+    private boolean contentBuilt = false;
+    // Shared by the placeholders of all exhibits.
+    private static CompletableFuture<Material> placeholderMaterial;
+
+    private final Context context;
+    private final int imageIndex;
+    // The catalog entry of the exhibit, holds its model, media and transform.
+    private final Exhibit exhibit;
+
+    // The player of the video, set once it has been prepared and started.
     public MediaPlayer nodeMediaPlayer;
+    // The video (player and texture) checked out from the VideoPlayerPool by startVideo.
+    private VideoPlayerPool.PooledVideo pooledVideo;
     public Node videoNode;
-    public ExternalTexture texture = new ExternalTexture();
-
-
-    // make sure the order of this list is the same as the order of imageList (which can be found in Fragment)
-
-    // List of renderables, used for effiency.
-    public ArrayList<CompletableFuture<ModelRenderable>> renderableList = new ArrayList<CompletableFuture<ModelRenderable>>(Arrays.asList(
-            beachcroc,
-            frame,
-            beachflag,
-            bigger_elephant,
-            birds,
-            couple,
-            fancyballroom,
-            frame,
-            firebreathingchicken,
-            lavaeye,
-            skater,
-            frame,
-            sunsetmonorail,
-            sushi,
-            ufosighting,
-            waterfall));
-
-
-    // Change the numbers in order to translate the position of the renderable
-    public static Vector3[] nodePosition = {
-            new Vector3 (0.0f, 0.0f, 0.0f), //beachcroc_text
-            new Vector3 (0.0f, 0.0f, 0.0f), //beachcroc
-            new Vector3 (0.0f, 0.0f, 0.0f), //beachflag
-            new Vector3 (0.0f, 0.0f, 0.0f), //bigger_elephant
-            new Vector3 (0.0f, 0.0f, 0.0f), //birds
-            new Vector3 (0.0f, 0.0f, 0.0f), //couple
-            new Vector3 (0.0f, 0.0f, 0.0f), //fancyballroom_text
-            new Vector3 (0.0f, 0.0f, 0.0f), //fancyballroom
-            new Vector3 (0.0f, 0.0f, 0.0f), //firebreathingchicken
-            new Vector3 (0.0f, 0.0f, 0.0f), //lavaeye
-            new Vector3 (0.0f, 0.0f, 0.0f), //skater_text
-            new Vector3 (0.0f, 0.0f, 0.0f), //skater
-            new Vector3 (0.0f, 0.0f, 0.0f), //sunsetmonorail
-            new Vector3 (0.0f, 0.0f, 0.0f), //sushi
-            new Vector3 (0.0f, 0.0f, 0.0f), //ufosighting
-            new Vector3 (0.0f, 0.0f, 0.0f)  //waterfall
-    };
-
-    // Change the numbers to rotate the renderable
-    public static Vector4[] nodeRotation = {
-            new Vector4 (1, 0, 0, 0f), //beachcroc_text
-            new Vector4 (1, 0, 0, 0f), //beachcroc
-            new Vector4 (0, 0, 0, 0f), //beachflag
-            new Vector4 (0, 0, 0, 0f), //bigger_elephant
-            new Vector4 (0, 0, 0, 0f), //birds
-            new Vector4 (0, 0, 0, 0f), //couple
-            new Vector4 (0, 0, 0, 0f), //fancyballroom_text
-            new Vector4 (0, 0, 0, 0f), //fancyballroom
-            new Vector4 (0, 0, 0, 0f), //firebreathingchicken
-            new Vector4 (0, 0, 0, 0f), //lavaeye
-            new Vector4 (0, 0, 0, 0f), //skater_text
-            new Vector4 (0, 0, 0, 0f), //skater
-            new Vector4 (0, 0, 0, 0f), //sunsetmonorail
-            new Vector4 (0, 0, 0, 0f), //sushi
-            new Vector4 (0, 0, 0, 0f), //ufosighting
-            new Vector4 (0, 0, 0, 0f)  //waterfall
-    };
+    // This node's copy of the chroma key video renderable, with the video's texture set on its material.
+    private ModelRenderable videoPlacedRenderable;
+    private boolean videoFrameAvailable = false;
+    // The texture the video is rendered to, comes from pooledVideo.
+    public ExternalTexture texture;
+
 
 // currentRenderable is the generic renderable variable used to store the one renderable being loaded (in AugmentedImageNode())
     public CompletableFuture<ModelRenderable> currentRenderable;
+    // Level of detail of the model, index into exhibit.modelLods (see LodSelector): the level modelNode shows,
+    // and the level last asked for, whose renderable is currentRenderable. They differ while it is loading.
+    private int lodLevel = 0;
+    private int requestedLodLevel = 0;
 
     // The augmented image represented by this node.
     private AugmentedImage image;
@@ -161,65 +101,61 @@ public class AugmentedImageNode extends AnchorNode {
     // Controls the height of the video in world space.
     private static final float VIDEO_HEIGHT_METERS = 0.2f;
 
-    // Creates an AugmentedImageNode object. Uses the list of images (see AugmentedImageFragment) to fetch renderables
-    // augmentedImageIndex is used to index imageList.
-    public AugmentedImageNode(Context context, String[] imageList, Integer augmentedImageIndex) {
-
-        // we check if sushi is null
-        // sushi is used in order to check if the renderables are null
-        // because the renderables are built using the same block of code all at once, if sushi (or any other completable future) is null,
-        // then they all are null
-        if (sushi == null) {
-
-            if (!(AugmentedImageFragment.imagePlaysVideoBooleanList[augmentedImageIndex])) {
-                currentRenderable = renderableList.get(augmentedImageIndex);
-                currentRenderable =
-                        // build the renderable using the image that is detected
-                        ModelRenderable.builder()
-                                .setSource(context, Uri.parse("models/" + imageList[augmentedImageIndex] + ".sfb"))
-                                .build();
-                Log.d("modelrenderable", ("conditional is running! filepath: " + Uri.parse("models/" + imageList[augmentedImageIndex] + ".sfb")));
+    // Where the video is placed, parallel to the detected image. Node setters copy these, they are never modified.
+    private static final Vector3 VIDEO_POSITION = new Vector3(0.0f, 0.0f, 0.07f); // x, z, y
+    private static final Quaternion VIDEO_ROTATION = Quaternion.axisAngle(new Vector3(1.0f, 0f, 0f), -90f);
+    // Scratch vectors for the video's and the placeholder's scale, only used on the UI thread.
+    private static final Vector3 videoScale = new Vector3();
+    private static final Vector3 placeholderScale = new Vector3();
+    // The placeholder is a unit quad, scaled to the size of the image.
+    private static final Vector3 PLACEHOLDER_SIZE = new Vector3(1.0f, 0.002f, 1.0f);
+
+    // Creates an AugmentedImageNode object. Uses the exhibit catalog (see ExhibitCatalog) to fetch renderables
+    // augmentedImageIndex is the index of the exhibit in the catalog.
+    public AugmentedImageNode(Context context, Integer augmentedImageIndex) {
+        this.context = context;
+        this.imageIndex = augmentedImageIndex;
+        this.exhibit = ExhibitCatalog.getInstance().get(augmentedImageIndex);
+
+        RenderableCache renderableCache = RenderableCache.getInstance();
+        if (!exhibit.playsVideo()) {
+            // build the renderable using the image that is detected (or reuse it if it was already built)
+            currentRenderable = renderableCache.get(context, exhibit.modelName);
+        } else {
+            // The frame is built once the extents of the image are known, only its material can be loaded now.
+            PictureFrameFactory.getInstance().loadMaterial(context);
+        }
 
-            } else {
+        loadVideoRenderable(context, exhibit.videoPreKeyed);
+    }
 
-                frame_ul =
-                        ModelRenderable.builder()
-                                .setSource(context, Uri.parse("models/frame_upper_left.sfb"))
-                                .build();
-                Log.d("running", ("running"));
-                frame_ur =
-                        ModelRenderable.builder()
-                                .setSource(context, Uri.parse("models/frame_upper_right.sfb"))
-                                .build();
-                frame_ll =
-                        ModelRenderable.builder()
-                                .setSource(context, Uri.parse("models/frame_lower_left.sfb"))
-                                .build();
-                frame_lr =
+    // Checks if the video renderable is null, if it is, it is loaded from models. Will be used as the thing
+    // that the video is placed on: chroma_key_video keys out CHROMA_KEY_COLOR, pre_keyed_video takes the
+    // alpha from the matte in the right half of a pre-keyed video, which saves the per-pixel keying.
+    public static CompletableFuture<ModelRenderable> loadVideoRenderable(Context context, boolean preKeyed) {
+        if (preKeyed) {
+            if (AugmentedImageActivity.preKeyedVideoRenderable == null) {
+                AugmentedImageActivity.preKeyedVideoRenderable =
                         ModelRenderable.builder()
-                                .setSource(context, Uri.parse("models/frame_lower_right.sfb"))
+                                .setSource(context, Uri.parse("models/pre_keyed_video.sfb"))
                                 .build();
-
             }
-
-
+            return AugmentedImageActivity.preKeyedVideoRenderable;
         }
-
-        // Checks if videoRenderable is null, if it is, videoRenderable is loaded from models.
-        // Will be used as the thing that the video is placed on.
         if (AugmentedImageActivity.videoRenderable == null) {
             AugmentedImageActivity.videoRenderable =
                     ModelRenderable.builder()
                             .setSource(context, Uri.parse("models/chroma_key_video.sfb"))
                             .build();
         }
+        return AugmentedImageActivity.videoRenderable;
     }
 
     /**
      * Called when the AugmentedImage is detected and should be rendered. A Sceneform node tree is
-     * created based on an Anchor created from the image. The corners are then positioned based on the
-     * extents of the image. There is no need to worry about world coordinates since everything is
-     * relative to the center of the image, which is the parent node of the corners.
+     * created based on an Anchor created from the image. There is no need to worry about world
+     * coordinates since everything is relative to the center of the image, which is the parent node of
+     * the model.
      */
 
     @SuppressWarnings({"AndroidApiChecker", "FutureReturnValueIgnored"})
@@ -227,66 +163,306 @@ public class AugmentedImageNode extends AnchorNode {
     // setImage takes arguments image, and augmentedImageIndex, which is used to index the list of renderables.
     public void setImage(AugmentedImage image, Integer augmentedImageIndex) {
         this.augmentedImage = image;
+        contentBuilt = true;
+
+
+
+        // creates the node
+        // in the case that there is more than one renderable in the scene, run the code again, replacing
+        // currentRenderable with the other renderables
+
+        Node fullnode;
+
+        fullnode = new Node();
+        fullnode.setParent(getContentNode());
+        modelNode = fullnode;
+        // The transform is precomputed by the catalog, placing the node allocates nothing.
+        ExhibitTransform transform = exhibit.transform;
+        fullnode.setLocalPosition(transform.position);
+        fullnode.setLocalScale(transform.scale);
+        fullnode.setLocalRotation(transform.rotation);
+        if (isLoaded(currentRenderable)) {
+            fullnode.setRenderable(currentRenderable.getNow(null));
+        }
 
         if (!currentRenderable.isDone()) {
-            CompletableFuture.allOf(currentRenderable)
-                    // in the case that more than one renderable is used to create a scene,
-                    // use CompletableFuture.allOf(currentRenderable, other renderables needed for the scene)
-                    .thenAccept((Void aVoid) -> setImage(image, augmentedImageIndex))
+            // The renderable is placed on the node as soon as it has loaded.
+            // in the case that more than one renderable is used to create a scene,
+            // use CompletableFuture.allOf(currentRenderable, other renderables needed for the scene)
+            CompletableFuture<ModelRenderable> renderable = currentRenderable;
+            renderable
+                    .thenAccept(
+                            loaded -> {
+                                if (currentRenderable == renderable) {
+                                    modelNode.setRenderable(loaded);
+                                }
+                            })
                     .exceptionally(
                             throwable -> {
                                 Log.e(TAG, "Exception loading", throwable);
                                 return null;
                             });
+        }
+        }
+
+    // Places the node on the image, anchored at its center by an anchor from the AnchorRegistry (the only
+    // place a node gets its anchor). The first time, the content of the exhibit is built (setImage or
+    // createVideo). A node recycled by ExhibitNodePool keeps its tree, it is only re-anchored and its frame
+    // and placeholder are fitted to the image.
+    public void attachTo(AugmentedImage image, AnchorRegistry anchorRegistry) {
+        setAnchor(anchorRegistry.acquire(image));
+        if (!contentBuilt) {
+            if (exhibit.playsVideo()) {
+                createVideo(context, image, imageIndex);
+            } else {
+                setImage(image, imageIndex);
             }
+            return;
+        }
+        this.augmentedImage = image;
+        this.image = image;
+        fitToImage(image);
+    }
 
-        // Set the anchor based on the center of the image.
-        setAnchor(image.createAnchor(image.getCenterPose()));
+    // Takes the node off its image so it can be recycled: the video is given back and the anchor is
+    // released (and detached by the registry), ARCore would otherwise keep updating it. The node must
+    // already be removed from the scene.
+    public void detachFromImage(AnchorRegistry anchorRegistry) {
+        stopVideo();
+        setAnchor(null);
+        if (augmentedImage != null) {
+            anchorRegistry.release(augmentedImage);
+        }
+        augmentedImage = null;
+        image = null;
+    }
 
+    // Fits the picture frame and resizes the placeholder to the extents of the image.
+    private void fitToImage(AugmentedImage image) {
+        if (frameNode != null) {
+            fitFrame(image);
+        }
+        if (placeholderNode != null) {
+            placeholderScale.set(image.getExtentX(), 1.0f, image.getExtentZ());
+            placeholderNode.setLocalScale(placeholderScale);
+        }
+    }
 
-        // creates the node
-        // in the case that there is more than one renderable in the scene, run the code again, replacing
-        // currentRenderable with the other renderables
+    public int getLodLevel() {
+        return lodLevel;
+    }
 
-        Node fullnode;
+    // Number of levels of detail of the model, 1 if it has no coarser variants or the exhibit plays a video.
+    public int getLodCount() {
+        return exhibit.modelLods.length == 0 ? 1 : exhibit.modelLods.length;
+    }
 
-        fullnode = new Node();
-        fullnode.setParent(this);
-        fullnode.setWorldPosition(new Vector3((this.getWorldPosition().x + (nodePosition[augmentedImageIndex].x)), (this.getWorldPosition().y + (nodePosition[augmentedImageIndex].y)), (this.getWorldPosition().z + (nodePosition[augmentedImageIndex].z))));
-        fullnode.setLocalScale(new Vector3(0.1f, 0.1f, 0.1f));
-        Quaternion newQuaternion = Quaternion.axisAngle(new Vector3(nodeRotation[augmentedImageIndex].x, nodeRotation[augmentedImageIndex].y, nodeRotation[augmentedImageIndex].z), nodeRotation[augmentedImageIndex].q);
-        fullnode.setLocalRotation(Quaternion.multiply(fullnode.getLocalRotation(), newQuaternion));
-        fullnode.setRenderable(currentRenderable.getNow(null));
+    // Switches the model to another level of detail. The renderable of the level is loaded through the
+    // RenderableCache, the current one stays on screen until it is done, so the model never disappears.
+    // getLodLevel() only changes once the level is shown. If it fails to load, the model stays at the level
+    // it shows and the level can be asked for again.
+    public void setLodLevel(int level) {
+        if (level == requestedLodLevel || level < 0 || level >= exhibit.modelLods.length) {
+            return;
+        }
+        CompletableFuture<ModelRenderable> previous = currentRenderable;
+        CompletableFuture<ModelRenderable> renderable =
+                RenderableCache.getInstance().get(context, exhibit.modelLods[level]);
+        if (renderable.isDone() && !isLoaded(renderable)) {
+            // RenderableCache logged why.
+            return;
+        }
+        requestedLodLevel = level;
+        currentRenderable = renderable;
+        if (modelNode == null) {
+            // Nothing is shown yet, setImage places the renderable of this level.
+            lodLevel = level;
+            return;
+        }
+        if (renderable.isDone()) {
+            modelNode.setRenderable(renderable.getNow(null));
+            lodLevel = level;
+            return;
+        }
+        renderable
+                .thenAccept(
+                        loaded -> {
+                            // Another level may have been selected while this one was loading.
+                            if (currentRenderable == renderable) {
+                                modelNode.setRenderable(loaded);
+                                lodLevel = level;
+                            }
+                        })
+                .exceptionally(
+                        throwable -> {
+                            // RenderableCache logged why.
+                            if (currentRenderable == renderable) {
+                                currentRenderable = previous;
+                                requestedLodLevel = lodLevel;
+                            }
+                            return null;
+                        });
+    }
+
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
+    public AugmentedImage getAugmentedImage() {
+        return augmentedImage;
+    }
+
+    private Node getContentNode() {
+        if (contentNode == null) {
+            contentNode = new Node();
+            contentNode.setParent(this);
+        }
+        return contentNode;
+    }
+
+    // Switches between the full content of the exhibit and its cheap placeholder. Videos are not stopped
+    // here, see ExhibitSessionManager.
+    public void showPlaceholder(boolean show) {
+        getContentNode().setEnabled(!show);
+        if (show && placeholderNode == null && augmentedImage != null) {
+            placeholderNode = new Node();
+            placeholderNode.setParent(this);
+            fitToImage(augmentedImage);
+            if (placeholderMaterial == null) {
+                placeholderMaterial = MaterialFactory.makeTransparentWithColor(context, new Color(1.0f, 1.0f, 1.0f, 0.3f));
+            }
+            placeholderMaterial.thenAccept(
+                    material -> placeholderNode.setRenderable(ShapeFactory.makeCube(PLACEHOLDER_SIZE, Vector3.zero(), material)));
+        }
+        if (placeholderNode != null) {
+            placeholderNode.setEnabled(show);
+        }
+    }
+
+    // Starts the video of the exhibit. A recently stopped video of the same exhibit is resumed from the VideoPlayerPool,
+    // otherwise it is prepared and started on the media worker (see AsyncMediaController), so this never blocks the frame.
+    // The video is played at the tier's resolution (see VideoTierSelector). preparedPlayer is the video
+    // prefetched by ExhibitPrefetcher for that tier, if it was ready in time.
+    public void startVideo(Context context, VideoTier tier, @Nullable MediaPlayer preparedPlayer) {
+        pooledVideo =
+                VideoPlayerPool.getInstance()
+                        .checkout(context, exhibit.videoResourceId(tier), preparedPlayer, this::onVideoReady);
+        VideoMetrics.getInstance().onVideoStarted(tier, exhibit.videoPreKeyed);
+        texture = pooledVideo.texture;
+        // A recycled node may get another pooled video than last time.
+        videoFrameAvailable = false;
+        if (videoPlacedRenderable != null) {
+            videoPlacedRenderable.getMaterial().setExternalTexture("videoTexture", texture);
+        }
+
+        // Wait to set the renderable until the first frame of the video becomes available.
+        // This prevents the renderable from briefly appearing as a black quad before the video
+        // plays. The listener stays until the video is given back, it counts the delivered frames.
+        texture
+                .getSurfaceTexture()
+                .setOnFrameAvailableListener(
+                        (SurfaceTexture surfaceTexture) -> {
+                            VideoMetrics.getInstance().onFrameDelivered();
+                            if (!videoFrameAvailable) {
+                                videoFrameAvailable = true;
+                                showVideoIfReady();
+                            }
+                        });
+    }
+
+    // Sets the video renderable once both the renderable has loaded and the video has its first frame.
+    private void showVideoIfReady() {
+        if (videoNode != null && videoPlacedRenderable != null && videoFrameAvailable) {
+            videoNode.setRenderable(videoPlacedRenderable);
+        }
+    }
+
+    // Called on the UI thread once the video has started, this is when its size is known.
+    private void onVideoReady(MediaPlayer player) {
+        nodeMediaPlayer = player;
+        if (videoNode != null) {
+            scaleVideoNode(player);
+        }
+    }
 
+    private void scaleVideoNode(MediaPlayer player) {
+        // A pre-keyed video has the color and the matte side by side.
+        float videoWidth = exhibit.videoPreKeyed ? player.getVideoWidth() / 2f : player.getVideoWidth();
+        float videoHeight = player.getVideoHeight();
+        if (videoWidth <= 0 || videoHeight <= 0) {
+            return;
         }
+        videoScale.set(VIDEO_HEIGHT_METERS * (videoWidth / videoHeight), VIDEO_HEIGHT_METERS, 1.4f);
+        videoNode.setLocalScale(videoScale);
+    }
 
-    public void startVideo(Context context, int augmentedImageIndex, ExternalTexture texture) {
-        nodeMediaPlayer = MediaPlayer.create(context, AugmentedImageFragment.Video_list[augmentedImageIndex]);
-        nodeMediaPlayer.setSurface(texture.getSurface());
-        nodeMediaPlayer.setLooping(true);
+    // True from startVideo() until stopVideo().
+    public boolean hasVideo() {
+        return pooledVideo != null;
     }
 
-    // Used to stop the video.
+    // Used to stop the video. The video is paused and given back to the VideoPlayerPool, which releases it
+    // (on the media worker) once it hasn't been used for a while.
     public void stopVideo() {
-        try {
-            texture.getSurfaceTexture().release();
-            nodeMediaPlayer.reset();
-            nodeMediaPlayer.prepare();
-            nodeMediaPlayer.stop();
-            nodeMediaPlayer.release();
-            nodeMediaPlayer = null;
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (pooledVideo == null) {
+            return;
+        }
+        VideoPlayerPool.getInstance().giveBack(pooledVideo);
+        pooledVideo = null;
+        nodeMediaPlayer = null;
+        // The texture belongs to the pool now, don't keep showing it.
+        if (videoNode != null) {
+            videoNode.setRenderable(null);
+        }
+    }
+
+    // Shows the frame of the image's size bucket (see PictureFrameFactory), scaled to its exact extents.
+    private void fitFrame(AugmentedImage image) {
+        PictureFrameFactory frameFactory = PictureFrameFactory.getInstance();
+        CompletableFuture<ModelRenderable> renderable = frameFactory.get(context, image.getExtentX(), image.getExtentZ());
+        frameNode.setLocalScale(frameFactory.getFitScale(image.getExtentX(), image.getExtentZ()));
+        if (renderable == frameRenderable) {
+            return;
         }
+        if (renderable.isDone() && !isLoaded(renderable)) {
+            // PictureFrameFactory logged why, the node keeps the frame it shows and the next attachTo tries again.
+            return;
+        }
+        frameRenderable = renderable;
+        if (renderable.isDone()) {
+            frameNode.setRenderable(renderable.getNow(null));
+            return;
+        }
+        // A recycled node keeps showing its previous frame until this one is built.
+        renderable
+                .thenAccept(
+                        loaded -> {
+                            if (frameRenderable == renderable) {
+                                frameNode.setRenderable(loaded);
+                            }
+                        })
+                .exceptionally(
+                        throwable -> {
+                            Log.e(TAG, "Exception building the picture frame", throwable);
+                            return null;
+                        });
+    }
+
+    // True once the renderable has loaded. getNow() of a load that failed would throw.
+    private static boolean isLoaded(CompletableFuture<ModelRenderable> renderable) {
+        return renderable.isDone() && !renderable.isCompletedExceptionally();
     }
 
     // Used to place the renderable on the image (video is also placed on the renderable)
     public void createVideo(Context context, AugmentedImage image, int augmentedImageIndex) {
         this.image = image;
+        this.augmentedImage = image;
+        contentBuilt = true;
 
 
 
-        CompletableFuture.allOf(AugmentedImageActivity.videoRenderable)
+        CompletableFuture<ModelRenderable> videoRenderable = loadVideoRenderable(context, exhibit.videoPreKeyed);
+        CompletableFuture.allOf(videoRenderable)
                 .handle((notUsed, throwable) -> {
                     // When you build a Renderable, Sceneform loads its resources in the background while
                     // returning a CompletableFuture. Call handle(), thenAccept(), or check isDone()
@@ -297,10 +473,17 @@ public class AugmentedImageNode extends AnchorNode {
                     }
 
                     try {
-                        // Sets the texture to the texture defined using (new ExternalTexture()) -> the video's surface is on that texture.
-                        AugmentedImageActivity.videoPlacedRenderable = AugmentedImageActivity.videoRenderable.get();
-                        AugmentedImageActivity.videoPlacedRenderable.getMaterial().setExternalTexture("videoTexture", texture);
-                        AugmentedImageActivity.videoPlacedRenderable.getMaterial().setFloat4("keyColor", CHROMA_KEY_COLOR);
+                        // Each node gets its own copy of the renderable (and material), so several videos can play at once.
+                        // Sets the texture to the texture of the pooled video -> the video's surface is on that texture.
+                        videoPlacedRenderable = videoRenderable.get().makeCopy();
+                        // The video may not have been started yet, startVideo sets the texture then.
+                        if (texture != null) {
+                            videoPlacedRenderable.getMaterial().setExternalTexture("videoTexture", texture);
+                        }
+                        if (!exhibit.videoPreKeyed) {
+                            videoPlacedRenderable.getMaterial().setFloat4("keyColor", CHROMA_KEY_COLOR);
+                        }
+                        showVideoIfReady();
 
                         // Everything finished loading successfully.
                     } catch (InterruptedException | ExecutionException ex) {
@@ -309,94 +492,31 @@ public class AugmentedImageNode extends AnchorNode {
                     return null;
                 });
 
-        if (!frame_lr.isDone() || !frame_ll.isDone() || !frame_ur.isDone() || !frame_ul.isDone()) {
-            CompletableFuture.allOf(frame_ll, frame_lr, frame_ul, frame_ur)
-                    .thenAccept((Void aVoid) -> setImage(image, augmentedImageIndex))
-                    .exceptionally(
-                            throwable -> {
-                                Log.e(TAG, "Exception loading", throwable);
-                                return null;
-                            });
-        }
-
-        Node fullnode;
-
-        fullnode = new Node();
-        fullnode.setParent(this);
-        fullnode.setWorldPosition(new Vector3(-0.5f * image.getExtentX(), 0.0f, 0.5f * image.getExtentZ()));
-        fullnode.setLocalScale(new Vector3(0.1f, 0.1f, 0.1f));
-        Quaternion lowerLeft = Quaternion.axisAngle(new Vector3(nodeRotation[augmentedImageIndex].x, nodeRotation[augmentedImageIndex].y, nodeRotation[augmentedImageIndex].z), nodeRotation[augmentedImageIndex].q);
-        fullnode.setLocalRotation(Quaternion.multiply(fullnode.getLocalRotation(), lowerLeft));
-        fullnode.setRenderable(frame_ll.getNow(null));
-
-        fullnode = new Node();
-        fullnode.setParent(this);
-        fullnode.setWorldPosition(new Vector3(0.5f * image.getExtentX(), 0.0f, 0.5f * image.getExtentZ()));
-        fullnode.setLocalScale(new Vector3(0.1f, 0.1f, 0.1f));
-        Quaternion lowerRight = Quaternion.axisAngle(new Vector3(nodeRotation[augmentedImageIndex].x, nodeRotation[augmentedImageIndex].y, nodeRotation[augmentedImageIndex].z), nodeRotation[augmentedImageIndex].q);
-        fullnode.setLocalRotation(Quaternion.multiply(fullnode.getLocalRotation(), lowerRight));
-        fullnode.setRenderable(frame_lr.getNow(null));
-
-        fullnode = new Node();
-        fullnode.setParent(this);
-        fullnode.setWorldPosition(new Vector3(-0.5f * image.getExtentX(), 0.0f, -0.5f * image.getExtentZ()));
-        fullnode.setLocalScale(new Vector3(0.1f, 0.1f, 0.1f));
-        Quaternion upperLeft = Quaternion.axisAngle(new Vector3(nodeRotation[augmentedImageIndex].x, nodeRotation[augmentedImageIndex].y, nodeRotation[augmentedImageIndex].z), nodeRotation[augmentedImageIndex].q);
-        fullnode.setLocalRotation(Quaternion.multiply(fullnode.getLocalRotation(), upperLeft));
-        fullnode.setRenderable(frame_ul.getNow(null));
-
-        fullnode = new Node();
-        fullnode.setParent(this);
-        fullnode.setWorldPosition(new Vector3(0.5f * image.getExtentX(), 0.0f, -0.5f * image.getExtentZ()));
-        fullnode.setLocalScale(new Vector3(0.1f, 0.1f, 0.1f));
-        Quaternion upperRight = Quaternion.axisAngle(new Vector3(nodeRotation[augmentedImageIndex].x, nodeRotation[augmentedImageIndex].y, nodeRotation[augmentedImageIndex].z), nodeRotation[augmentedImageIndex].q);
-        fullnode.setLocalRotation(Quaternion.multiply(fullnode.getLocalRotation(), upperRight));
-        fullnode.setRenderable(frame_ur.getNow(null));
+        // One node and one draw call for the whole frame, rotated like the exhibit's content.
+        frameNode = new Node();
+        frameNode.setParent(getContentNode());
+        frameNode.setLocalRotation(exhibit.transform.rotation);
+        fitFrame(image);
 
-        // augmentedImageIndex is taken from the arguments of this method - (setImage)
-        AugmentedImageActivity.augmentedImageVideoPlayerIndex = augmentedImageIndex;
-        // Set the anchor based on the center of the image.
-        setAnchor(image.createAnchor(image.getCenterPose()));
 
 
         // videoNode is created and will be placed on the image, directly parallel to the image.
         videoNode = new Node();
-        videoNode.setParent(this);
+        videoNode.setParent(getContentNode());
 
 
-        float videoWidth = nodeMediaPlayer.getVideoWidth();
-        float videoHeight = nodeMediaPlayer.getVideoHeight();
-
-        videoNode.setLocalScale(
-                new Vector3(
-                        VIDEO_HEIGHT_METERS * (videoWidth / videoHeight), VIDEO_HEIGHT_METERS, 1.4f));
+        // Until the video is prepared its size is unknown, assume 16:9. It is rescaled in onVideoReady.
+        videoScale.set(VIDEO_HEIGHT_METERS * (16f / 9f), VIDEO_HEIGHT_METERS, 1.4f);
+        videoNode.setLocalScale(videoScale);
+        if (nodeMediaPlayer != null) {
+            scaleVideoNode(nodeMediaPlayer);
+        }
 
 
         // Sets the video's position from perpendicular to the image to parallel to the detected image.
-        Quaternion q1 = videoNode.getLocalRotation();
-        Quaternion q2 = Quaternion.axisAngle(new Vector3(1.0f, 0f, 0f), -90f);
-        videoNode.setLocalPosition(new Vector3(0.0f, 0.0f, 0.07f)); // x, z, y
-        videoNode.setLocalRotation(Quaternion.multiply(q1, q2));
-
-        // If the video is not playing, it will be started.
-        if (!nodeMediaPlayer.isPlaying()) {
-            nodeMediaPlayer.start();
-            // Wait to set the renderable until the first frame of the  video becomes available.
-            // This prevents the renderable from briefly appearing as a black quad before the video
-            // plays.
-            texture
-                    .getSurfaceTexture()
-                    .setOnFrameAvailableListener(
-                            (SurfaceTexture surfaceTexture) -> {
-                                videoNode.setRenderable(AugmentedImageActivity.videoPlacedRenderable);
-                                texture.getSurfaceTexture().setOnFrameAvailableListener(null);
-
-                            });
-        } else {
-            videoNode.setRenderable(AugmentedImageActivity.videoPlacedRenderable);
-        }
-
-        Log.d("node", "creating!!!");
+        videoNode.setLocalPosition(VIDEO_POSITION);
+        videoNode.setLocalRotation(VIDEO_ROTATION);
 
+        // The renderable is set by the frame listener registered in startVideo, once the video is playing.
     }
 }
@@ -1,9 +0,0 @@
-package com.google.ar.sceneform.samples.augmentedimage;
-
-// AugmentedImageStaticNode is used for ease of keeping track of the node created when a new image is detected.
-public class AugmentedImageStaticNode {
-
-    public static AugmentedImageNode node;
-
-
-}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+/**
+ * The sizes and frame rates the screen can be captured at, lowest first. The scale applies to both sides
+ * of the display. CaptureTierSelector picks the tier that is captured.
+ */
+public enum CaptureTier {
+    HALF(1 / 2f, 20),
+    TWO_THIRDS(2 / 3f, 24),
+    FULL(1f, 30);
+
+    public final float scale;
+    // The highest frame rate handed to the encoder, the screen may change less often.
+    public final int frameRate;
+
+    CaptureTier(float scale, int frameRate) {
+        this.scale = scale;
+        this.frameRate = frameRate;
+    }
+}
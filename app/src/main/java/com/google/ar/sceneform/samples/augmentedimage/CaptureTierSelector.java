@@ -0,0 +1,53 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import com.google.ar.sceneform.FrameTime;
+
+/**
+ * Picks the CaptureTier the screen is recorded at from the frame time while recording (see
+ * FrameTimeGovernor). Capturing the full panel while rendering AR halves the frame rate on older phones,
+ * so the capture goes down a tier when the frames get slow and back up once they are fast for a while. A
+ * capture starts at the tier the last one ended at. ScreenRecorder applies a new tier by starting a new
+ * segment, the capture itself goes on.
+ *
+ * Only used from the UI thread.
+ */
+public class CaptureTierSelector {
+
+    // Every switch restarts the video encoder, so a tier is kept at least this long before going down, and
+    // going up needs this long of fast frames.
+    private static final long DOWN_SWITCH_NANOS = 10_000_000_000L;
+    private static final long UP_SWITCH_NANOS = 30_000_000_000L;
+
+    private static final CaptureTierSelector THE_INSTANCE = new CaptureTierSelector();
+
+    private final FrameTimeGovernor<CaptureTier> governor =
+            new FrameTimeGovernor<>(
+                    "Capture", CaptureTier.values(), CaptureTier.FULL, DOWN_SWITCH_NANOS, UP_SWITCH_NANOS);
+
+    public static CaptureTierSelector getInstance() {
+        return THE_INSTANCE;
+    }
+
+    private CaptureTierSelector() {
+        // The full panel is only captured once the frames have shown there is room for it.
+        governor.reset(CaptureTier.FULL, CaptureTier.TWO_THIRDS);
+    }
+
+    // Called when a capture starts, the frames before it are not measured.
+    public void onCaptureStarted() {
+        governor.reset(governor.getMaxTier(), governor.getTier());
+    }
+
+    // Called every frame from onUpdateFrame while capturing.
+    public void onFrame(FrameTime frameTime) {
+        governor.onFrame(frameTime);
+    }
+
+    public CaptureTier getTier() {
+        return governor.getTier();
+    }
+
+    public String stats() {
+        return governor.stats();
+    }
+}
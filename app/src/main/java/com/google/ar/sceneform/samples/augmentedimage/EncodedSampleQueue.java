@@ -0,0 +1,158 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.support.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded queue of encoded samples between the encoders of ScreenRecorder and the thread that writes
+ * them, so an encoder never waits on storage. The queue holds at most maxBytes of sample data: when the
+ * writer falls behind, obtain() returns null and the encoder drops the sample instead of blocking.
+ *
+ * Sample buffers are recycled through a pool, so a steady recording allocates nothing per frame.
+ * Thread safe, samples are put by the encoder threads and taken by the writer.
+ */
+public class EncodedSampleQueue {
+
+    // One encoded sample, or the output format of a track (format set, no data).
+    public static class Sample {
+        public int track;
+        @Nullable public MediaFormat format;
+        public ByteBuffer data;
+        public final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        Sample(int capacity) {
+            data = ByteBuffer.allocateDirect(capacity);
+        }
+
+        public boolean isKeyFrame() {
+            return (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        }
+
+        public boolean isEndOfStream() {
+            return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        }
+    }
+
+    // Samples are allocated in multiples of this, so recycled buffers fit most later samples.
+    private static final int CAPACITY_STEP = 16 * 1024;
+    // Free samples kept for reuse.
+    private static final int MAX_POOLED_SAMPLES = 64;
+
+    private final long maxBytes;
+    private final ArrayDeque<Sample> queue = new ArrayDeque<>();
+    private final ArrayDeque<Sample> pool = new ArrayDeque<>();
+    // Capacity of the samples in the queue and handed out by obtain(), not yet recycled.
+    private long usedBytes = 0;
+    private long highWaterBytes = 0;
+
+    public EncodedSampleQueue(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // A sample with room for size bytes, or null if the queue is full. The sample must be put or recycled.
+    @Nullable
+    public synchronized Sample obtain(int size) {
+        Sample sample = null;
+        for (Sample pooled : pool) {
+            if (pooled.data.capacity() >= size) {
+                sample = pooled;
+                break;
+            }
+        }
+        int capacity = sample != null ? sample.data.capacity() : roundUp(size);
+        if (usedBytes + capacity > maxBytes) {
+            return null;
+        }
+        if (sample != null) {
+            pool.remove(sample);
+        } else {
+            sample = new Sample(capacity);
+        }
+        usedBytes += capacity;
+        highWaterBytes = Math.max(highWaterBytes, usedBytes);
+        sample.format = null;
+        sample.data.clear();
+        return sample;
+    }
+
+    // Copies size bytes of an encoder's output buffer into a new sample, null if the queue is full.
+    @Nullable
+    public Sample copy(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        Sample sample = obtain(info.size);
+        if (sample == null) {
+            return null;
+        }
+        sample.track = track;
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        sample.data.put(buffer);
+        sample.data.flip();
+        sample.info.set(0, info.size, info.presentationTimeUs, info.flags);
+        return sample;
+    }
+
+    public synchronized void put(Sample sample) {
+        queue.add(sample);
+        notifyAll();
+    }
+
+    // Queues the output format of a track, formats are never dropped.
+    public synchronized void putFormat(int track, MediaFormat format) {
+        Sample sample = pool.isEmpty() ? new Sample(0) : pool.poll();
+        sample.track = track;
+        sample.format = format;
+        sample.info.set(0, 0, 0, 0);
+        usedBytes += sample.data.capacity();
+        queue.add(sample);
+        notifyAll();
+    }
+
+    // Queues the end of a track (no data, end of stream flag), never dropped either.
+    public synchronized void putEndOfStream(int track) {
+        Sample sample = pool.isEmpty() ? new Sample(0) : pool.poll();
+        sample.track = track;
+        sample.format = null;
+        sample.info.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        usedBytes += sample.data.capacity();
+        queue.add(sample);
+        notifyAll();
+    }
+
+    // The oldest sample, waiting up to timeoutMillis for one. Null on timeout.
+    @Nullable
+    public synchronized Sample take(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (queue.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        return queue.poll();
+    }
+
+    public synchronized void recycle(Sample sample) {
+        usedBytes -= sample.data.capacity();
+        sample.format = null;
+        if (pool.size() < MAX_POOLED_SAMPLES) {
+            pool.add(sample);
+        }
+    }
+
+    // How full the queue is, from 0 to 1.
+    public synchronized float getFill() {
+        return (float) usedBytes / maxBytes;
+    }
+
+    public synchronized long getHighWaterBytes() {
+        return highWaterBytes;
+    }
+
+    private static int roundUp(int size) {
+        return Math.max(CAPACITY_STEP, (size + CAPACITY_STEP - 1) / CAPACITY_STEP * CAPACITY_STEP);
+    }
+}
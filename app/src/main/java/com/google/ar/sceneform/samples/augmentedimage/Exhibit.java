@@ -0,0 +1,75 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.support.annotation.Nullable;
+
+/**
+ * One exhibit of the gallery: the image that is detected and everything that is shown or played for it.
+ * Exhibits are loaded from assets/exhibits.txt by ExhibitCatalog.
+ */
+public class Exhibit {
+
+    // Index of the exhibit in the catalog (see ImageDatabaseShards.exhibitIndexOf).
+    public final int index;
+    // Name of the image, the image file is assets/<imageName>.jpg.
+    public final String imageName;
+    // Name of the model placed on the image (models/<modelName>.sfb), null for video exhibits.
+    @Nullable public final String modelName;
+    // Models of the levels of detail, modelLods[0] is modelName and every next one a coarser variant
+    // (models/<modelName>_lod<level>.sfb). Empty for video exhibits.
+    public final String[] modelLods;
+    // Raw resource of the song, 0 if the exhibit has none.
+    public final int audioResourceId;
+    // Raw resource of the video, 0 if the exhibit doesn't play a video.
+    public final int videoResourceId;
+    // Raw resource of the video for every VideoTier, by ordinal. A tier without its own variant has the
+    // variant of the nearest lower tier (or higher, if there is none), so every entry can be played.
+    private final int[] videoTierResourceIds;
+    // Whether the video is pre-keyed: the color in the left half of each frame and the alpha matte in the
+    // right half, instead of a chroma key background.
+    public final boolean videoPreKeyed;
+    // Position, scale and rotation of the model relative to the center of the image. The picture frame only
+    // takes the rotation, it is sized to the image.
+    public final ExhibitTransform transform;
+    // Physical width of the printed image in meters, 0 if unknown.
+    public final float widthMeters;
+    // Indices of the exhibits hung next to this one, their media is prefetched along with this exhibit's.
+    public final int[] neighbours;
+
+    Exhibit(
+            int index,
+            String imageName,
+            @Nullable String modelName,
+            String[] modelLods,
+            int audioResourceId,
+            int videoResourceId,
+            int[] videoTierResourceIds,
+            boolean videoPreKeyed,
+            ExhibitTransform transform,
+            float widthMeters,
+            int[] neighbours) {
+        this.index = index;
+        this.imageName = imageName;
+        this.modelName = modelName;
+        this.modelLods = modelLods;
+        this.audioResourceId = audioResourceId;
+        this.videoResourceId = videoResourceId;
+        this.videoTierResourceIds = videoTierResourceIds;
+        this.videoPreKeyed = videoPreKeyed;
+        this.transform = transform;
+        this.widthMeters = widthMeters;
+        this.neighbours = neighbours;
+    }
+
+    public boolean playsVideo() {
+        return videoResourceId != 0;
+    }
+
+    // Raw resource of the video at the tier, 0 if the exhibit doesn't play a video.
+    public int videoResourceId(VideoTier tier) {
+        return playsVideo() ? videoTierResourceIds[tier.ordinal()] : 0;
+    }
+
+    public boolean hasAudio() {
+        return audioResourceId != 0;
+    }
+}
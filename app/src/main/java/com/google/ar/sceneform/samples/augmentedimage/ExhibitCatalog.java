@@ -0,0 +1,261 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The exhibits of the gallery, loaded from assets/exhibits.txt and indexed by their line in the file, so
+ * looking up the exhibit of a detected image is a plain array access (ImageDatabaseShards maps the index
+ * of an image in its database to the exhibit index).
+ *
+ * exhibits.txt has one exhibit per line, with the fields separated by '|':
+ *
+ *   image|model|audio|video|x,y,z|axisX,axisY,axisZ,angle|widthMeters|neighbours
+ *
+ * model is the name of the .sfb in assets/models, audio and video are the names of raw resources, and
+ * neighbours is a comma separated list of exhibit indices. Use '-' for fields an exhibit doesn't have.
+ * Lines starting with '#' are comments. Coarser variants of a model (models/<model>_lod1.sfb, _lod2, ...)
+ * are picked up automatically as its levels of detail, see LodSelector. Likewise lower resolution variants
+ * of a video (<video>_480p, <video>_720p) are picked up as its VideoTiers. A video whose name ends with
+ * _alpha is pre-keyed (color and alpha matte side by side) and is shown without the chroma key.
+ *
+ * The whole file is validated when it is loaded: every model, song and video it mentions must exist, so a
+ * mistake in the catalog is reported at startup instead of when a visitor reaches the exhibit.
+ */
+public class ExhibitCatalog {
+
+    private static final String CATALOG_FILE = "exhibits.txt";
+    private static final String NONE = "-";
+    private static final int FIELD_COUNT = 8;
+    // All models are shown at a tenth of their size.
+    private static final float MODEL_SCALE = 0.1f;
+    private static final String LOD_SUFFIX = "_lod";
+    private static final String PRE_KEYED_SUFFIX = "_alpha";
+
+    private static ExhibitCatalog instance;
+
+    private final Exhibit[] exhibits;
+
+    private ExhibitCatalog(Exhibit[] exhibits) {
+        this.exhibits = exhibits;
+    }
+
+    // Loads and validates the catalog, only the first call reads the file. Throws an IOException listing
+    // every problem found in the catalog.
+    public static synchronized ExhibitCatalog load(Context context) throws IOException {
+        if (instance == null) {
+            try (InputStream is = context.getAssets().open(CATALOG_FILE)) {
+                instance = parse(context, is);
+            }
+        }
+        return instance;
+    }
+
+    // The catalog loaded by load().
+    public static ExhibitCatalog getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("ExhibitCatalog.load() has not been called");
+        }
+        return instance;
+    }
+
+    // The exhibit at this index, see ImageDatabaseShards.exhibitIndexOf.
+    public Exhibit get(int index) {
+        return exhibits[index];
+    }
+
+    public int size() {
+        return exhibits.length;
+    }
+
+    private static ExhibitCatalog parse(Context context, InputStream is) throws IOException {
+        Resources resources = context.getResources();
+        String packageName = context.getPackageName();
+        Set<String> models = listModels(context.getAssets());
+
+        List<String[]> records = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            records.add(line.split("\\|", -1));
+            lineNumbers.add(lineNumber);
+        }
+
+        List<String> errors = new ArrayList<>();
+        Exhibit[] exhibits = new Exhibit[records.size()];
+        // The transforms are parsed into one packed store and normalized together before the exhibits
+        // get their Sceneform copies.
+        TransformStore transforms = new TransformStore(records.size());
+        for (int i = 0; i < exhibits.length; i++) {
+            String[] fields = records.get(i);
+            String where = CATALOG_FILE + ":" + lineNumbers.get(i) + ": ";
+            if (fields.length != FIELD_COUNT) {
+                errors.add(where + "expected " + FIELD_COUNT + " fields, found " + fields.length);
+                continue;
+            }
+            try {
+                float[] position = floats(fields[4], 3);
+                float[] rotation = floats(fields[5], 4);
+                transforms.setPosition(i, position[0], position[1], position[2]);
+                transforms.setScale(i, MODEL_SCALE, MODEL_SCALE, MODEL_SCALE);
+                transforms.setAxisAngle(i, rotation[0], rotation[1], rotation[2], rotation[3]);
+            } catch (IllegalArgumentException e) {
+                errors.add(where + e.getMessage());
+            }
+        }
+        transforms.normalizeRotations();
+
+        for (int i = 0; i < exhibits.length; i++) {
+            String[] fields = records.get(i);
+            String where = CATALOG_FILE + ":" + lineNumbers.get(i) + ": ";
+            if (fields.length != FIELD_COUNT) {
+                continue;
+            }
+            try {
+                String imageName = fields[0].trim();
+                String modelName = optional(fields[1]);
+                if (modelName != null && !models.contains(modelName + ".sfb")) {
+                    errors.add(where + "missing model models/" + modelName + ".sfb");
+                }
+                int audio = rawResource(resources, packageName, fields[2], where, errors);
+                int video = rawResource(resources, packageName, fields[3], where, errors);
+                String videoName = optional(fields[3]);
+                if (modelName == null && video == 0) {
+                    errors.add(where + "exhibit has neither a model nor a video");
+                }
+                String width = optional(fields[6]);
+                int[] neighbours = neighbours(fields[7], records.size(), where, errors);
+
+                exhibits[i] =
+                        new Exhibit(
+                                i,
+                                imageName,
+                                modelName,
+                                modelLods(modelName, models),
+                                audio,
+                                video,
+                                videoTiers(resources, packageName, videoName, video),
+                                videoName != null && videoName.endsWith(PRE_KEYED_SUFFIX),
+                                new ExhibitTransform(transforms, i),
+                                width == null ? 0 : Float.parseFloat(width),
+                                neighbours);
+            } catch (IllegalArgumentException e) {
+                errors.add(where + e.getMessage());
+            }
+        }
+
+        if (exhibits.length == 0) {
+            errors.add(CATALOG_FILE + " has no exhibits");
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException("Invalid exhibit catalog:\n" + String.join("\n", errors));
+        }
+        return new ExhibitCatalog(exhibits);
+    }
+
+    private static Set<String> listModels(AssetManager assetManager) throws IOException {
+        String[] files = assetManager.list("models");
+        return new HashSet<>(Arrays.asList(files == null ? new String[0] : files));
+    }
+
+    // The model followed by its consecutive _lod<level> variants that exist in assets/models.
+    private static String[] modelLods(String modelName, Set<String> models) {
+        if (modelName == null) {
+            return new String[0];
+        }
+        List<String> lods = new ArrayList<>();
+        lods.add(modelName);
+        while (models.contains(modelName + LOD_SUFFIX + lods.size() + ".sfb")) {
+            lods.add(modelName + LOD_SUFFIX + lods.size());
+        }
+        return lods.toArray(new String[0]);
+    }
+
+    // The raw resource of the video for every VideoTier. Tiers without a variant get the variant of the
+    // nearest lower tier, or of the nearest higher one if there is no lower one.
+    private static int[] videoTiers(Resources resources, String packageName, String videoName, int video) {
+        VideoTier[] tiers = VideoTier.values();
+        int[] ids = new int[tiers.length];
+        if (videoName == null) {
+            return ids;
+        }
+        for (VideoTier tier : tiers) {
+            ids[tier.ordinal()] =
+                    tier == VideoTier.FULL ? video : resources.getIdentifier(videoName + tier.suffix, "raw", packageName);
+        }
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == 0) {
+                ids[i] = ids[i - 1];
+            }
+        }
+        for (int i = ids.length - 2; i >= 0; i--) {
+            if (ids[i] == 0) {
+                ids[i] = ids[i + 1];
+            }
+        }
+        return ids;
+    }
+
+    private static String optional(String field) {
+        field = field.trim();
+        return field.isEmpty() || field.equals(NONE) ? null : field;
+    }
+
+    private static int rawResource(
+            Resources resources, String packageName, String field, String where, List<String> errors) {
+        String name = optional(field);
+        if (name == null) {
+            return 0;
+        }
+        int id = resources.getIdentifier(name, "raw", packageName);
+        if (id == 0) {
+            errors.add(where + "missing raw resource " + name);
+        }
+        return id;
+    }
+
+    private static float[] floats(String field, int count) {
+        String[] parts = field.split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException("expected " + count + " numbers in '" + field + "'");
+        }
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Float.parseFloat(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static int[] neighbours(String field, int exhibitCount, String where, List<String> errors) {
+        if (optional(field) == null) {
+            return new int[0];
+        }
+        String[] parts = field.split(",");
+        int[] neighbours = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            neighbours[i] = Integer.parseInt(parts[i].trim());
+            if (neighbours[i] < 0 || neighbours[i] >= exhibitCount) {
+                errors.add(where + "neighbour " + neighbours[i] + " is not an exhibit index");
+            }
+        }
+        return neighbours;
+    }
+}
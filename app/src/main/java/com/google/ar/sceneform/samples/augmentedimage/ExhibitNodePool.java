@@ -0,0 +1,66 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the node trees of exhibits that stopped tracking, so an exhibit the visitor glances back at is
+ * re-anchored instead of rebuilt: its model, picture frame, video node and placeholder are all
+ * reused. Pooled nodes are detached from the scene and their anchors are detached from the session (see
+ * AugmentedImageNode.detachFromImage), so they cost ARCore nothing while idle.
+ *
+ * Only used from the UI thread.
+ */
+public class ExhibitNodePool {
+
+    // Enough for the exhibits of a room.
+    private static final int DEFAULT_MAX_IDLE_NODES = 8;
+
+    // Idle nodes keyed by exhibit index, least recently recycled first.
+    private final LinkedHashMap<Integer, AugmentedImageNode> idleNodes = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxIdleNodes = DEFAULT_MAX_IDLE_NODES;
+
+    private long reuseCount = 0;
+    private long createCount = 0;
+
+    public void setMaxIdleNodes(int maxIdleNodes) {
+        this.maxIdleNodes = maxIdleNodes;
+        trimToSize(maxIdleNodes);
+    }
+
+    // A node for the exhibit, recycled if the pool has one. Call attachTo() to place it on its image.
+    public AugmentedImageNode obtain(Context context, int exhibitIndex) {
+        AugmentedImageNode node = idleNodes.remove(exhibitIndex);
+        if (node != null) {
+            reuseCount++;
+            return node;
+        }
+        createCount++;
+        return new AugmentedImageNode(context, exhibitIndex);
+    }
+
+    // Keeps a node that was removed from the scene and detached from its image.
+    public void recycle(AugmentedImageNode node) {
+        idleNodes.put(node.getImageIndex(), node);
+        trimToSize(maxIdleNodes);
+    }
+
+    // Drops all idle nodes, e.g. when the activity is destroyed or memory is low.
+    public void clear() {
+        idleNodes.clear();
+    }
+
+    public String stats() {
+        return "idle=" + idleNodes.size() + "/" + maxIdleNodes + " reused=" + reuseCount + " created=" + createCount;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Integer, AugmentedImageNode>> iterator = idleNodes.entrySet().iterator();
+        while (iterator.hasNext() && idleNodes.size() > maxSize) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
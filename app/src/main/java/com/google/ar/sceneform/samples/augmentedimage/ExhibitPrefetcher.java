@@ -0,0 +1,243 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts loading an exhibit's renderable, song and video as soon as its image is detected (PAUSED),
+ * so they are ready by the time the image is TRACKING. The neighbours of the exhibit (see
+ * Exhibit.neighbours) are prefetched as well, because the visitor is likely to
+ * walk to them next.
+ *
+ * The songs and videos are prepared on a small background executor. Prefetches for exhibits the
+ * visitor walked away from are cancelled and their players released.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class ExhibitPrefetcher {
+
+    private static final String TAG = "ExhibitPrefetcher";
+
+    // Preparing a MediaPlayer mostly waits on the decoder, two threads are plenty.
+    private static final int THREAD_COUNT = 2;
+    // Only the most recent requests matter, older ones are dropped when the queue is full (see dropOldest).
+    private static final int MAX_QUEUED_TASKS = 8;
+
+    // The media being prepared for one exhibit. All fields are guarded by the Prefetch itself.
+    private static class Prefetch {
+        MediaPlayer audio;
+        MediaPlayer video;
+        // The raw resource video was prepared from, the tier may have changed by the time it is taken.
+        int videoResourceId;
+        boolean cancelled = false;
+
+        synchronized void cancel() {
+            cancelled = true;
+            release(audio);
+            release(video);
+            audio = null;
+            video = null;
+        }
+    }
+
+    // The preparation of one exhibit's media, queued on the executor.
+    private static class PrefetchTask implements Runnable {
+        final int imageIndex;
+        final Prefetch prefetch;
+        final Runnable work;
+
+        PrefetchTask(int imageIndex, Prefetch prefetch, Runnable work) {
+            this.imageIndex = imageIndex;
+            this.prefetch = prefetch;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+    }
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Map<Integer, Prefetch> prefetches = new HashMap<>();
+
+    // Like DiscardOldestPolicy, but the dropped exhibit's prefetch is also forgotten, so it is prefetched
+    // again the next time it is detected instead of looking prefetched forever. Runs inside execute(),
+    // on the thread that holds the lock of the prefetcher.
+    private final RejectedExecutionHandler dropOldest =
+            (Runnable task, ThreadPoolExecutor pool) -> {
+                if (pool.isShutdown()) {
+                    drop((PrefetchTask) task);
+                    return;
+                }
+                Runnable oldest = pool.getQueue().poll();
+                if (oldest != null) {
+                    drop((PrefetchTask) oldest);
+                }
+                pool.execute(task);
+            };
+
+    public ExhibitPrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+        executor =
+                new ThreadPoolExecutor(
+                        THREAD_COUNT,
+                        THREAD_COUNT,
+                        30,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(MAX_QUEUED_TASKS),
+                        dropOldest);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Prefetches the exhibit at imageIndex and its neighbours. Safe to call every frame, exhibits that
+    // are already prefetched are skipped. Must be called from the UI thread (renderables are built there).
+    public void prefetchWithNeighbours(int imageIndex) {
+        prefetch(imageIndex);
+        for (int neighbour : ExhibitCatalog.getInstance().get(imageIndex).neighbours) {
+            prefetch(neighbour);
+        }
+    }
+
+    public synchronized void prefetch(int imageIndex) {
+        if (prefetches.containsKey(imageIndex)) {
+            return;
+        }
+        Prefetch prefetch = new Prefetch();
+        prefetches.put(imageIndex, prefetch);
+
+        // Renderables are already loaded asynchronously by Sceneform, starting the load is enough.
+        Exhibit exhibit = ExhibitCatalog.getInstance().get(imageIndex);
+        if (exhibit.playsVideo()) {
+            // The picture frame is built to the image's extents once it is detected, its material can be loaded now.
+            PictureFrameFactory.getInstance().loadMaterial(context);
+            AugmentedImageNode.loadVideoRenderable(context, exhibit.videoPreKeyed);
+        } else {
+            RenderableCache.getInstance().get(context, exhibit.modelName);
+        }
+
+        // Video exhibits don't play their song (see ExhibitSessionManager.updateSong).
+        // The video is prepared at the current tier (see VideoTierSelector).
+        int resourceId =
+                exhibit.playsVideo()
+                        ? exhibit.videoResourceId(VideoTierSelector.getInstance().getTier())
+                        : exhibit.audioResourceId;
+        if (resourceId == 0) {
+            return;
+        }
+        prefetch.videoResourceId = exhibit.playsVideo() ? resourceId : 0;
+        executor.execute(
+                new PrefetchTask(imageIndex, prefetch, () -> {
+                    synchronized (prefetch) {
+                        if (prefetch.cancelled) {
+                            return;
+                        }
+                    }
+                    MediaPlayer player = MediaPlayer.create(context, resourceId);
+                    if (player == null) {
+                        Log.e(TAG, "Could not prefetch media for image " + imageIndex);
+                        return;
+                    }
+                    synchronized (prefetch) {
+                        if (prefetch.cancelled) {
+                            release(player);
+                        } else if (exhibit.playsVideo()) {
+                            prefetch.video = player;
+                        } else {
+                            prefetch.audio = player;
+                        }
+                    }
+                }));
+    }
+
+    // Hands over the prefetched song of the exhibit, or null if it isn't ready yet. Never blocks.
+    // Either way the prefetch is finished, so the exhibit is prefetched again the next time it is detected.
+    @Nullable
+    public synchronized MediaPlayer takeAudio(int imageIndex) {
+        Prefetch prefetch = prefetches.remove(imageIndex);
+        if (prefetch == null) {
+            return null;
+        }
+        synchronized (prefetch) {
+            MediaPlayer audio = prefetch.audio;
+            prefetch.audio = null;
+            // If the player is still being prepared it is released as soon as it is done.
+            prefetch.cancel();
+            return audio;
+        }
+    }
+
+    // Hands over the prefetched (prepared, surface not yet set) video of the exhibit, or null if it isn't
+    // ready yet or was prepared from another raw resource than resourceId (another tier). Never blocks.
+    @Nullable
+    public synchronized MediaPlayer takeVideo(int imageIndex, int resourceId) {
+        Prefetch prefetch = prefetches.remove(imageIndex);
+        if (prefetch == null) {
+            return null;
+        }
+        synchronized (prefetch) {
+            MediaPlayer video = prefetch.videoResourceId == resourceId ? prefetch.video : null;
+            if (video != null) {
+                prefetch.video = null;
+            }
+            // If the player is still being prepared it is released as soon as it is done.
+            prefetch.cancel();
+            return video;
+        }
+    }
+
+    // Called when the visitor is at the exhibit at imageIndex: everything that isn't that exhibit or one
+    // of its neighbours is cancelled.
+    public synchronized void retainNeighbours(int imageIndex) {
+        Set<Integer> keep = new HashSet<>();
+        keep.add(imageIndex);
+        for (int neighbour : ExhibitCatalog.getInstance().get(imageIndex).neighbours) {
+            keep.add(neighbour);
+        }
+        for (Integer index : new ArrayList<>(prefetches.keySet())) {
+            if (!keep.contains(index)) {
+                cancel(index);
+            }
+        }
+    }
+
+    // Cancels the prefetch of one exhibit (e.g. its image STOPPED tracking) and releases its media.
+    public synchronized void cancel(int imageIndex) {
+        Prefetch prefetch = prefetches.remove(imageIndex);
+        if (prefetch != null) {
+            prefetch.cancel();
+        }
+    }
+
+    // A queued task that will never run: its prefetch is cancelled and, if it is still the exhibit's
+    // current one, removed.
+    private synchronized void drop(PrefetchTask task) {
+        if (prefetches.get(task.imageIndex) == task.prefetch) {
+            prefetches.remove(task.imageIndex);
+        }
+        task.prefetch.cancel();
+    }
+
+    public synchronized void shutdown() {
+        for (Integer index : new ArrayList<>(prefetches.keySet())) {
+            cancel(index);
+        }
+        executor.shutdownNow();
+    }
+
+    // Players are released on the media worker, cancel() is called from the UI thread.
+    private static void release(@Nullable MediaPlayer player) {
+        AsyncMediaController.releaseAsync(player);
+    }
+}
@@ -0,0 +1,322 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import com.google.ar.sceneform.Scene;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of all the exhibits that are live in the scene, so several paintings in the same room can
+ * be shown at once. Up to maxActiveExhibits exhibits have a node in the scene. Every frame they are ranked
+ * by how large they appear on screen (image area over squared distance to the camera): the first
+ * maxFullExhibits show their full model or video, the rest are demoted to a cheap placeholder, and only the
+ * highest ranked exhibit plays its song. Models that are shown in full pick their level of detail from the
+ * same measure (see LodSelector).
+ *
+ * Only used from the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class ExhibitSessionManager {
+
+    // Nodes kept in the scene at once, and how many of them show their full content.
+    private static final int DEFAULT_MAX_ACTIVE_EXHIBITS = 4;
+    private static final int DEFAULT_MAX_FULL_EXHIBITS = 2;
+
+    // An exhibit that is already showing its full content keeps it until another one is this much more
+    // prominent, so exhibits don't flicker between full and placeholder when they are about the same size.
+    private static final float PROMOTION_HYSTERESIS = 1.25f;
+
+    // One live exhibit.
+    private static class ActiveExhibit {
+        final AugmentedImageNode node;
+        float priority = 0;
+        boolean full = false;
+
+        ActiveExhibit(AugmentedImageNode node) {
+            this.node = node;
+        }
+    }
+
+    private final Context context;
+    private final Scene scene;
+    private final ExhibitPrefetcher exhibitPrefetcher;
+    private final AsyncMediaController audioController;
+    private final FrameProfiler frameProfiler;
+    private final AnchorRegistry anchorRegistry;
+
+    private final Map<AugmentedImage, ActiveExhibit> activeExhibits = new HashMap<>();
+    // Nodes of exhibits that stopped tracking, reused when they are seen again.
+    private final ExhibitNodePool nodePool = new ExhibitNodePool();
+    // Reused every frame to rank the active exhibits.
+    private final ArrayList<ActiveExhibit> ranking = new ArrayList<>();
+    private final Comparator<ActiveExhibit> byRankingPriority =
+            (a, b) -> Float.compare(rankingPriority(b), rankingPriority(a));
+
+    private int maxActiveExhibits = DEFAULT_MAX_ACTIVE_EXHIBITS;
+    private int maxFullExhibits = DEFAULT_MAX_FULL_EXHIBITS;
+
+    // Index (in ExhibitCatalog) of the exhibit whose song is playing, or -1.
+    private int currentSongIndex = -1;
+    // Index of the highest ranked exhibit, or -1.
+    private int topExhibitIndex = -1;
+    private long lodSwitchCount = 0;
+    // Switches between exhibits with the same song, which keep it playing.
+    private long keptSongCount = 0;
+    private Pose cameraPose;
+    private float[] cameraZAxis;
+
+    public ExhibitSessionManager(
+            Context context,
+            Scene scene,
+            ExhibitPrefetcher exhibitPrefetcher,
+            AsyncMediaController audioController,
+            FrameProfiler frameProfiler,
+            AnchorRegistry anchorRegistry) {
+        this.context = context;
+        this.scene = scene;
+        this.exhibitPrefetcher = exhibitPrefetcher;
+        this.audioController = audioController;
+        this.frameProfiler = frameProfiler;
+        this.anchorRegistry = anchorRegistry;
+    }
+
+    public void setMaxActiveExhibits(int maxActiveExhibits) {
+        this.maxActiveExhibits = maxActiveExhibits;
+    }
+
+    public void setMaxFullExhibits(int maxFullExhibits) {
+        this.maxFullExhibits = maxFullExhibits;
+    }
+
+    public boolean isActive(AugmentedImage image) {
+        return activeExhibits.containsKey(image);
+    }
+
+    public boolean isEmpty() {
+        return activeExhibits.isEmpty();
+    }
+
+    // Places a node for a newly tracked image. If the cap is reached, the lowest ranked exhibit makes room
+    // for it, unless the new image is even less prominent. May run a few frames after the image was found
+    // (see FrameProfiler.runOrDefer), so it checks the image is still worth placing. exhibitIndex is the
+    // exhibit of the image in ExhibitCatalog (see ImageDatabaseShards.exhibitIndexOf).
+    public void activate(AugmentedImage image, int exhibitIndex) {
+        if (activeExhibits.containsKey(image) || image.getTrackingState() != TrackingState.TRACKING) {
+            return;
+        }
+        if (activeExhibits.size() >= maxActiveExhibits) {
+            ActiveExhibit lowest = null;
+            for (ActiveExhibit exhibit : activeExhibits.values()) {
+                if (lowest == null || exhibit.priority < lowest.priority) {
+                    lowest = exhibit;
+                }
+            }
+            if (lowest == null || priorityOf(image) <= lowest.priority) {
+                return;
+            }
+            deactivate(lowest.node.getAugmentedImage());
+        }
+
+        long phaseStart = frameProfiler.startPhase();
+        // An exhibit that was seen before gets its old node tree back. For video exhibits this places the frame
+        // and the video node, the video itself is started when the exhibit is promoted.
+        AugmentedImageNode node = nodePool.obtain(context, exhibitIndex);
+        node.attachTo(image, anchorRegistry);
+        ActiveExhibit exhibit = new ActiveExhibit(node);
+        exhibit.priority = priorityOf(image);
+        activeExhibits.put(image, exhibit);
+        // New exhibits start as placeholders, updatePriorities promotes them if they rank high enough.
+        node.showPlaceholder(true);
+        frameProfiler.endPhase(FrameProfiler.Phase.NODE_CREATION, phaseStart);
+
+        phaseStart = frameProfiler.startPhase();
+        scene.addChild(node);
+        frameProfiler.endPhase(FrameProfiler.Phase.SCENE_ATTACH, phaseStart);
+    }
+
+    // Removes the exhibit of an image that stopped tracking (or was pushed out by a more prominent one).
+    public void deactivate(AugmentedImage image) {
+        ActiveExhibit exhibit = activeExhibits.remove(image);
+        if (exhibit == null) {
+            return;
+        }
+        long phaseStart = frameProfiler.startPhase();
+        if (exhibit.node.getImageIndex() == currentSongIndex) {
+            audioController.stop();
+            currentSongIndex = -1;
+        }
+        frameProfiler.endPhase(FrameProfiler.Phase.MEDIA_SWITCH, phaseStart);
+
+        phaseStart = frameProfiler.startPhase();
+        scene.removeChild(exhibit.node);
+        // Stops the video and releases the anchor, then keeps the node for when the image is seen again.
+        exhibit.node.detachFromImage(anchorRegistry);
+        nodePool.recycle(exhibit.node);
+        frameProfiler.endPhase(FrameProfiler.Phase.SCENE_ATTACH, phaseStart);
+    }
+
+    // Ranks the active exhibits from the camera's point of view and hands out full content and the song.
+    public void updatePriorities(Pose cameraPose) {
+        this.cameraPose = cameraPose;
+        this.cameraZAxis = cameraPose.getZAxis();
+        if (activeExhibits.isEmpty()) {
+            return;
+        }
+
+        ranking.clear();
+        for (ActiveExhibit exhibit : activeExhibits.values()) {
+            exhibit.priority = priorityOf(exhibit.node.getAugmentedImage());
+            ranking.add(exhibit);
+        }
+        Collections.sort(ranking, byRankingPriority);
+
+        long phaseStart = frameProfiler.startPhase();
+        for (int i = 0; i < ranking.size(); i++) {
+            ActiveExhibit exhibit = ranking.get(i);
+            boolean full = i < maxFullExhibits && exhibit.priority > 0;
+            if (full != exhibit.full) {
+                setFull(exhibit, full);
+            }
+            if (exhibit.full) {
+                updateLod(exhibit);
+            }
+        }
+
+        ActiveExhibit top = ranking.get(0);
+        int topIndex = top.node.getImageIndex();
+        if (topIndex != topExhibitIndex) {
+            topExhibitIndex = topIndex;
+            // The visitor is at this exhibit, stop prefetching the ones they walked away from.
+            exhibitPrefetcher.retainNeighbours(topIndex);
+        }
+        updateSong(top.full ? topIndex : -1);
+        if (ranking.size() > 1 && ranking.get(1).full) {
+            prefetchSong(ranking.get(1).node.getImageIndex());
+        }
+        frameProfiler.endPhase(FrameProfiler.Phase.MEDIA_SWITCH, phaseStart);
+    }
+
+    // Releases everything, including the recycled nodes, when the activity is destroyed.
+    public void destroy() {
+        clear();
+        nodePool.clear();
+    }
+
+    // Drops the recycled nodes when memory is low.
+    public void trimMemory() {
+        nodePool.clear();
+    }
+
+    public String stats() {
+        return "active=" + activeExhibits.size()
+                + " lodSwitches=" + lodSwitchCount
+                + " keptSongs=" + keptSongCount
+                + " nodePool: " + nodePool.stats();
+    }
+
+    // Removes all exhibits from the scene, e.g. when the image database changes.
+    public void clear() {
+        for (AugmentedImage image : new ArrayList<>(activeExhibits.keySet())) {
+            deactivate(image);
+        }
+        audioController.stop();
+        currentSongIndex = -1;
+        topExhibitIndex = -1;
+    }
+
+    private void setFull(ActiveExhibit exhibit, boolean full) {
+        exhibit.full = full;
+        AugmentedImageNode node = exhibit.node;
+        Exhibit catalogExhibit = ExhibitCatalog.getInstance().get(node.getImageIndex());
+        if (catalogExhibit.playsVideo()) {
+            if (full) {
+                // Videos start at the tier the frame time currently allows.
+                VideoTier tier = VideoTierSelector.getInstance().getTier();
+                MediaPlayer prefetched =
+                        exhibitPrefetcher.takeVideo(node.getImageIndex(), catalogExhibit.videoResourceId(tier));
+                node.startVideo(context, tier, prefetched);
+            } else {
+                node.stopVideo();
+            }
+        }
+        node.showPlaceholder(!full);
+    }
+
+    // Picks the level of detail of the model from how large the image appears, priority is its square.
+    private void updateLod(ActiveExhibit exhibit) {
+        AugmentedImageNode node = exhibit.node;
+        int lodCount = node.getLodCount();
+        if (lodCount <= 1) {
+            return;
+        }
+        int level = LodSelector.select(node.getLodLevel(), (float) Math.sqrt(exhibit.priority), lodCount);
+        if (level != node.getLodLevel()) {
+            node.setLodLevel(level);
+            lodSwitchCount++;
+        }
+    }
+
+    // Plays the song of the exhibit at imageIndex, or no song if it is -1, the exhibit plays a video or
+    // has no song.
+    private void updateSong(int imageIndex) {
+        Exhibit exhibit = imageIndex >= 0 ? ExhibitCatalog.getInstance().get(imageIndex) : null;
+        if (exhibit != null && (exhibit.playsVideo() || !exhibit.hasAudio())) {
+            exhibit = null;
+            imageIndex = -1;
+        }
+        if (imageIndex == currentSongIndex) {
+            return;
+        }
+        currentSongIndex = imageIndex;
+        if (imageIndex < 0) {
+            audioController.stop();
+        } else if (exhibit.audioResourceId == audioController.getCurrentResourceId()) {
+            // Exhibits that share a song (e.g. a model and its text panel) don't restart it.
+            keptSongCount++;
+        } else {
+            // The old song keeps playing until the new one is prepared, then the two crossfade (off the UI thread).
+            audioController.play(exhibit.audioResourceId, exhibitPrefetcher.takeAudio(imageIndex));
+        }
+    }
+
+    // Has the song of the runner-up prepared ahead, so it starts right away if the visitor turns to it.
+    private void prefetchSong(int imageIndex) {
+        Exhibit exhibit = ExhibitCatalog.getInstance().get(imageIndex);
+        if (imageIndex != currentSongIndex
+                && exhibit.hasAudio()
+                && !exhibit.playsVideo()
+                && exhibit.audioResourceId != audioController.getCurrentResourceId()) {
+            exhibitPrefetcher.prefetch(imageIndex);
+        }
+    }
+
+    private float rankingPriority(ActiveExhibit exhibit) {
+        return exhibit.full ? exhibit.priority * PROMOTION_HYSTERESIS : exhibit.priority;
+    }
+
+    // How large the image appears on screen: its area divided by its squared distance to the camera.
+    // Images behind the camera get 0.
+    private float priorityOf(AugmentedImage image) {
+        if (cameraPose == null) {
+            return 0;
+        }
+        Pose imagePose = image.getCenterPose();
+        float dx = imagePose.tx() - cameraPose.tx();
+        float dy = imagePose.ty() - cameraPose.ty();
+        float dz = imagePose.tz() - cameraPose.tz();
+        float distanceSquared = dx * dx + dy * dy + dz * dz;
+
+        // The camera looks down its negative z axis.
+        if (dx * cameraZAxis[0] + dy * cameraZAxis[1] + dz * cameraZAxis[2] > 0) {
+            return 0;
+        }
+        return image.getExtentX() * image.getExtentZ() / Math.max(distanceSquared, 0.01f);
+    }
+}
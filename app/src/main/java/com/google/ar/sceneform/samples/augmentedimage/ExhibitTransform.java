@@ -0,0 +1,25 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+
+/**
+ * Where the content of an exhibit is placed relative to the center of its image, as the Sceneform types
+ * the Node setters take. Built once from the catalog's TransformStore when the catalog is loaded, so
+ * placing an exhibit doesn't allocate. Node.setLocalPosition/Scale/Rotation copy their argument, so the
+ * vectors are shared by all nodes and must never be modified.
+ */
+public class ExhibitTransform {
+
+    // Change the numbers in exhibits.txt in order to translate the position of the renderable
+    public final Vector3 position;
+    public final Vector3 scale;
+    // Change the numbers in exhibits.txt to rotate the renderable
+    public final Quaternion rotation;
+
+    ExhibitTransform(TransformStore store, int index) {
+        this.position = store.toPosition(index);
+        this.scale = store.toScale(index);
+        this.rotation = store.toRotation(index);
+    }
+}
@@ -0,0 +1,243 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import com.google.ar.sceneform.FrameTime;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures the work done in AugmentedImageActivity.onUpdateFrame. Each phase of the update loop is
+ * timed into a histogram, frames that took longer than the target frame time are counted as dropped,
+ * and expensive work can be deferred to the next frames once the per-frame work budget is used up.
+ *
+ * The histograms are printed by dump(), which is called when the activity is dumped:
+ *   adb shell dumpsys activity com.google.ar.sceneform.samples.augmentedimage/.AugmentedImageActivity
+ *
+ * Only used from the UI thread (which is where Sceneform calls the update listeners), so nothing here
+ * is synchronized, and nothing is allocated per frame.
+ */
+public class FrameProfiler {
+
+    // The phases of onUpdateFrame that are timed.
+    public enum Phase {
+        // The whole onUpdateFrame call.
+        FRAME,
+        // Getting and iterating over the updated trackables of the frame.
+        TRACKABLES,
+        // Starting, stopping and switching songs and videos.
+        MEDIA_SWITCH,
+        // Creating AugmentedImageNodes and placing their renderables.
+        NODE_CREATION,
+        // Adding nodes to and removing nodes from the scene.
+        SCENE_ATTACH,
+        // Work that was deferred from an earlier frame.
+        DEFERRED
+    }
+
+    // ARCore delivers camera frames at 30 fps.
+    private static final long DEFAULT_TARGET_FRAME_NANOS = 33_333_333L;
+    // About a quarter of the frame, the rest is left to ARCore's update and Sceneform's rendering.
+    private static final long DEFAULT_FRAME_BUDGET_NANOS = 8_000_000L;
+
+    // At most this much work waits for later frames, the oldest is dropped beyond that.
+    private static final int MAX_DEFERRED_WORK = 16;
+
+    // Bucket i of a histogram counts the samples in [2^i, 2^(i+1)) nanoseconds.
+    private static final int BUCKET_COUNT = 40;
+
+    private static class Histogram {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+
+        void record(long nanos) {
+            int bucket = nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+            buckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        // Returns the upper bound of the bucket containing the given percentile.
+        long percentileNanos(double percentile) {
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(1L << (i + 1), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        void reset() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+    }
+
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+    // Deferred work by key, oldest first. Deferring work for a key that is already waiting replaces it.
+    private final LinkedHashMap<Object, Runnable> deferredWork = new LinkedHashMap<>();
+
+    private long targetFrameNanos = DEFAULT_TARGET_FRAME_NANOS;
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+
+    private long frameStartNanos = 0;
+    private long frameCount = 0;
+    private long droppedFrameCount = 0;
+    private long overBudgetFrameCount = 0;
+    private long deferredWorkCount = 0;
+    private long droppedWorkCount = 0;
+
+    public FrameProfiler() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public void setTargetFrameNanos(long targetFrameNanos) {
+        this.targetFrameNanos = targetFrameNanos;
+    }
+
+    // How much of each frame onUpdateFrame may spend before expensive work is deferred to the next frame.
+    public void setFrameBudgetNanos(long frameBudgetNanos) {
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    // Called at the start of onUpdateFrame. Counts the frames that were dropped since the last call,
+    // then runs as much of the deferred work as fits in the budget.
+    public void beginFrame(FrameTime frameTime) {
+        frameStartNanos = System.nanoTime();
+        frameCount++;
+
+        long deltaNanos = (long) (frameTime.getDeltaSeconds() * 1_000_000_000L);
+        if (deltaNanos > targetFrameNanos + targetFrameNanos / 2) {
+            droppedFrameCount += Math.max(1, deltaNanos / targetFrameNanos - 1);
+        }
+
+        while (!deferredWork.isEmpty() && hasBudgetLeft()) {
+            long start = System.nanoTime();
+            pollDeferredWork().run();
+            endPhase(Phase.DEFERRED, start);
+        }
+    }
+
+    // Called at the end of onUpdateFrame.
+    public void endFrame() {
+        long frameNanos = System.nanoTime() - frameStartNanos;
+        histograms[Phase.FRAME.ordinal()].record(frameNanos);
+        if (frameNanos > frameBudgetNanos) {
+            overBudgetFrameCount++;
+        }
+    }
+
+    // Returns the start time to pass to endPhase.
+    public long startPhase() {
+        return System.nanoTime();
+    }
+
+    public void endPhase(Phase phase, long startNanos) {
+        histograms[phase.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    // True while the current frame hasn't used up its work budget.
+    public boolean hasBudgetLeft() {
+        return System.nanoTime() - frameStartNanos < frameBudgetNanos;
+    }
+
+    // Runs the work now if the frame still has budget left, otherwise runs it in one of the next frames.
+    // key identifies what the work is for (e.g. the image it places): work deferred again for the same key
+    // replaces the waiting work instead of queueing it twice. Deferred work must check that it still
+    // applies when it runs (e.g. the image may have stopped tracking).
+    public void runOrDefer(Object key, Runnable work) {
+        if (hasBudgetLeft()) {
+            deferredWork.remove(key);
+            work.run();
+            return;
+        }
+        if (deferredWork.put(key, work) != null) {
+            return;
+        }
+        deferredWorkCount++;
+        if (deferredWork.size() > MAX_DEFERRED_WORK) {
+            // Whatever the oldest work was for is asked for again while it still applies.
+            pollDeferredWork();
+            droppedWorkCount++;
+        }
+    }
+
+    private Runnable pollDeferredWork() {
+        Iterator<Map.Entry<Object, Runnable>> oldest = deferredWork.entrySet().iterator();
+        Runnable work = oldest.next().getValue();
+        oldest.remove();
+        return work;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    // Mean time spent in onUpdateFrame, in nanoseconds.
+    public long getMeanFrameNanos() {
+        Histogram frame = histograms[Phase.FRAME.ordinal()];
+        return frame.count == 0 ? 0 : frame.totalNanos / frame.count;
+    }
+
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        frameCount = 0;
+        droppedFrameCount = 0;
+        overBudgetFrameCount = 0;
+        deferredWorkCount = 0;
+        droppedWorkCount = 0;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "FrameProfiler:");
+        writer.println(
+                String.format(
+                        Locale.US,
+                        "%s  frames=%d dropped=%d overBudget=%d deferred=%d pending=%d droppedWork=%d budget=%.1fms target=%.1fms",
+                        prefix,
+                        frameCount,
+                        droppedFrameCount,
+                        overBudgetFrameCount,
+                        deferredWorkCount,
+                        deferredWork.size(),
+                        droppedWorkCount,
+                        frameBudgetNanos / 1e6,
+                        targetFrameNanos / 1e6));
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = histograms[phase.ordinal()];
+            if (histogram.count == 0) {
+                continue;
+            }
+            writer.println(
+                    String.format(
+                            Locale.US,
+                            "%s  %-13s n=%-7d mean=%8.3fms p50<=%8.3fms p90<=%8.3fms p99<=%8.3fms max=%8.3fms",
+                            prefix,
+                            phase,
+                            histogram.count,
+                            histogram.totalNanos / (double) histogram.count / 1e6,
+                            histogram.percentileNanos(0.50) / 1e6,
+                            histogram.percentileNanos(0.90) / 1e6,
+                            histogram.percentileNanos(0.99) / 1e6,
+                            histogram.maxNanos / 1e6));
+        }
+    }
+}
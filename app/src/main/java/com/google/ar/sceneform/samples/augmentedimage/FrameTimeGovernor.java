@@ -0,0 +1,105 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.sceneform.FrameTime;
+
+/**
+ * Picks a tier from a list, lowest first, by the frame time: when the frames get slower than
+ * SLOW_FRAME_SECONDS on average the tier goes down, once they are back under FAST_FRAME_SECONDS for a
+ * while it goes up again, up to the ceiling. Each user passes its own tiers, ceiling and switch delays,
+ * depending on how expensive a switch is (see VideoTierSelector and CaptureTierSelector).
+ *
+ * Only used from the UI thread.
+ */
+public class FrameTimeGovernor<T> {
+
+    private static final String TAG = "FrameTimeGovernor";
+
+    // ARCore runs at 30 fps. Below 25 fps the work of the tier is too expensive, around 30 fps there is
+    // room for more.
+    private static final float SLOW_FRAME_SECONDS = 1 / 25f;
+    private static final float FAST_FRAME_SECONDS = 1 / 28f;
+    // Weight of the newest frame in the average frame time, about the last second of frames counts.
+    private static final float AVERAGE_WEIGHT = 0.05f;
+
+    private final String name;
+    private final T[] tiers;
+    // A tier is kept at least downSwitchNanos before going down, going up needs upSwitchNanos of fast frames.
+    private final long downSwitchNanos;
+    private final long upSwitchNanos;
+
+    private int maxLevel;
+    private int level;
+    private float averageFrameSeconds = 0;
+    private long lastSwitchNanos = 0;
+    // Last frame at which the average frame time wasn't fast.
+    private long lastNotFastNanos = 0;
+    private long switchCount = 0;
+
+    // Starts at the ceiling. name is only used in the log.
+    public FrameTimeGovernor(String name, T[] tiers, T maxTier, long downSwitchNanos, long upSwitchNanos) {
+        this.name = name;
+        this.tiers = tiers;
+        this.downSwitchNanos = downSwitchNanos;
+        this.upSwitchNanos = upSwitchNanos;
+        this.maxLevel = levelOf(maxTier);
+        this.level = maxLevel;
+    }
+
+    // Sets the ceiling and the tier. The frames before are no longer counted.
+    public void reset(T maxTier, T tier) {
+        maxLevel = levelOf(maxTier);
+        level = Math.min(levelOf(tier), maxLevel);
+        averageFrameSeconds = 0;
+        lastSwitchNanos = System.nanoTime();
+        lastNotFastNanos = lastSwitchNanos;
+    }
+
+    // Called every frame from onUpdateFrame.
+    public void onFrame(FrameTime frameTime) {
+        float deltaSeconds = frameTime.getDeltaSeconds();
+        averageFrameSeconds =
+                averageFrameSeconds == 0
+                        ? deltaSeconds
+                        : averageFrameSeconds + AVERAGE_WEIGHT * (deltaSeconds - averageFrameSeconds);
+
+        long now = System.nanoTime();
+        if (averageFrameSeconds >= FAST_FRAME_SECONDS) {
+            lastNotFastNanos = now;
+        }
+        if (averageFrameSeconds > SLOW_FRAME_SECONDS && level > 0 && now - lastSwitchNanos > downSwitchNanos) {
+            setLevel(level - 1);
+        } else if (level < maxLevel && now - Math.max(lastSwitchNanos, lastNotFastNanos) > upSwitchNanos) {
+            setLevel(level + 1);
+        }
+    }
+
+    public T getTier() {
+        return tiers[level];
+    }
+
+    public T getMaxTier() {
+        return tiers[maxLevel];
+    }
+
+    public String stats() {
+        return "tier=" + tiers[level] + " maxTier=" + tiers[maxLevel]
+                + " averageFrame=" + Math.round(averageFrameSeconds * 1000) + "ms switches=" + switchCount;
+    }
+
+    private void setLevel(int newLevel) {
+        Log.d(TAG, name + " tier " + tiers[level] + " -> " + tiers[newLevel] + ", average frame " + averageFrameSeconds + "s");
+        level = newLevel;
+        lastSwitchNanos = System.nanoTime();
+        switchCount++;
+    }
+
+    private int levelOf(T tier) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (tiers[i] == tier) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(tier + " is not a tier of " + name);
+    }
+}
@@ -0,0 +1,510 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.AugmentedImageDatabase;
+import com.google.ar.core.Config;
+import com.google.ar.core.Session;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the gallery into several augmented image databases (e.g. one per room or floor), so ARCore only
+ * matches the camera image against the paintings the visitor can actually see and the session starts
+ * with a small database. Only one shard is configured on the session at a time. The shards next to it
+ * are deserialized in the background, so switchTo() only has to call Session.configure.
+ *
+ * The shards are listed in assets/shards.txt, one per line, with the fields separated by '|':
+ *
+ *   name|database|exhibits|next
+ *
+ * database is the .imgdb in the assets folder, or '-' to build the database from the exhibits' images.
+ * exhibits lists the exhibit indices (see ExhibitCatalog) in the order of the images in the database,
+ * e.g. "0-7,12". next is a comma separated list of the shards the visitor can walk to from this one, or
+ * '-'. The first shard is the one the session starts with.
+ *
+ * Must be used from the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class ImageDatabaseShards {
+
+    private static final String TAG = "ImageDatabaseShards";
+
+    private static final String SHARDS_FILE = "shards.txt";
+    private static final String NONE = "-";
+    private static final int FIELD_COUNT = 4;
+
+    // Images are decoded on this many threads when a database is built from them.
+    private static final int DECODE_THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    // ARCore recommends images of at least 300x300 pixels, larger images are downsampled to about twice that.
+    private static final int MIN_IMAGE_DIMENSION = 640;
+
+    // Called on the UI thread once a new shard is configured on the session. The AugmentedImages of the
+    // previous shard are no longer updated, so their exhibits should be removed.
+    public interface OnShardSwitchedListener {
+        void onShardSwitched(Shard shard);
+    }
+
+    // One database and the exhibits in it.
+    public static class Shard {
+        public final String name;
+        // Asset of the serialized database, null if it is built from the exhibits' images.
+        @Nullable public final String databaseFile;
+        // Exhibit index of every image in the database, in database order.
+        public final int[] exhibitIndices;
+        private final String[] nextNames;
+        private Shard[] next;
+
+        // Loaded (or loading) database, null while the shard isn't active or next to the active one.
+        private CompletableFuture<AugmentedImageDatabase> database;
+
+        // Metrics, only updated on the UI thread.
+        private int loadCount = 0;
+        private long lastLoadNanos = 0;
+        private long totalLoadNanos = 0;
+        // Timings of the last time the database was built from images, null if it never was.
+        private volatile String lastBuildReport;
+
+        Shard(String name, @Nullable String databaseFile, int[] exhibitIndices, String[] nextNames) {
+            this.name = name;
+            this.databaseFile = databaseFile;
+            this.exhibitIndices = exhibitIndices;
+            this.nextNames = nextNames;
+        }
+    }
+
+    private final Context context;
+    private final Shard[] shards;
+    // Databases are deserialized one at a time, they are large and CPU bound.
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean buildFromImages = false;
+    @Nullable private OnShardSwitchedListener onShardSwitchedListener;
+
+    private Session session;
+    private Config config;
+    private Shard activeShard;
+    // The shard of the last switchTo() call, which may still be loading.
+    private Shard requestedShard;
+    // Round robin position in the active shard's next shards, see searchNext().
+    private int searchCursor = 0;
+    // The shard every image seen in this session came from. ARCore keeps updating the images of a
+    // previous database (they go to STOPPED) after a switch, and their indices are into that database.
+    private final Map<AugmentedImage, Shard> imageShards = new HashMap<>();
+
+    private int switchCount = 0;
+    private long switchRequestNanos = 0;
+    private long lastSwitchNanos = 0;
+
+    public ImageDatabaseShards(Context context) throws IOException {
+        this.context = context.getApplicationContext();
+        try (InputStream is = context.getAssets().open(SHARDS_FILE)) {
+            this.shards = parse(is, ExhibitCatalog.getInstance().size());
+        }
+    }
+
+    // Builds every database from the exhibits' images instead of deserializing the .imgdb files.
+    public void setBuildFromImages(boolean buildFromImages) {
+        this.buildFromImages = buildFromImages;
+    }
+
+    public void setOnShardSwitchedListener(@Nullable OnShardSwitchedListener onShardSwitchedListener) {
+        this.onShardSwitchedListener = onShardSwitchedListener;
+    }
+
+    // Called when the session is configured: sets the database of the active shard (the first shard when
+    // the session is first created) on config, waiting for it if it is still loading. Returns false if the
+    // database could not be loaded.
+    public boolean attach(Session session, Config config) {
+        if (session != this.session) {
+            // Databases belong to the session they were loaded for.
+            for (Shard shard : shards) {
+                shard.database = null;
+            }
+            imageShards.clear();
+        }
+        this.session = session;
+        this.config = config;
+        if (activeShard == null) {
+            activeShard = shards[0];
+            requestedShard = activeShard;
+        }
+        AugmentedImageDatabase database = load(activeShard).join();
+        if (database == null) {
+            // The next attach tries again.
+            activeShard.database = null;
+            return false;
+        }
+        config.setAugmentedImageDatabase(database);
+        preloadNext(activeShard);
+        return true;
+    }
+
+    public Shard getActiveShard() {
+        return activeShard;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // The exhibit (index in ExhibitCatalog) of an image, looked up in the shard it came from. An image that
+    // is new is taken to be from the active shard if its index and name match an image of it, otherwise
+    // (e.g. an update of the previous database that arrived after a switch) it is -1 and should be ignored.
+    public int exhibitIndexOf(AugmentedImage image) {
+        Shard shard = imageShards.get(image);
+        if (shard == null) {
+            if (activeShard == null || !isImageOf(activeShard, image)) {
+                return -1;
+            }
+            shard = activeShard;
+            imageShards.put(image, shard);
+        }
+        return shard.exhibitIndices[image.getIndex()];
+    }
+
+    // Switches the session to the named shard as soon as its database is loaded. Does nothing if the shard
+    // is already active or being switched to.
+    public void switchTo(String name) {
+        for (Shard shard : shards) {
+            if (shard.name.equals(name)) {
+                switchTo(shard);
+                return;
+            }
+        }
+        Log.e(TAG, "No shard named " + name);
+    }
+
+    // Switches to the next shard of the active one, going round all of them on successive calls. Used when
+    // none of the active shard's paintings have been seen for a while, the visitor has probably moved on.
+    public void searchNext() {
+        if (activeShard == null || activeShard.next.length == 0) {
+            return;
+        }
+        switchTo(activeShard.next[searchCursor++ % activeShard.next.length]);
+    }
+
+    // Stops the loader, e.g. when the activity is destroyed.
+    public void shutdown() {
+        loader.shutdownNow();
+        onShardSwitchedListener = null;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(
+                prefix + "ImageDatabaseShards: active=" + (activeShard == null ? "none" : activeShard.name)
+                        + " switches=" + switchCount
+                        + " lastSwitchMs=" + lastSwitchNanos / 1000000);
+        for (Shard shard : shards) {
+            writer.println(
+                    prefix + "  " + shard.name + ": images=" + shard.exhibitIndices.length
+                            + " loaded=" + (shard.database != null && shard.database.isDone())
+                            + " loads=" + shard.loadCount
+                            + " lastLoadMs=" + shard.lastLoadNanos / 1000000
+                            + " meanLoadMs=" + (shard.loadCount == 0 ? 0 : shard.totalLoadNanos / shard.loadCount / 1000000)
+                            + (shard.lastBuildReport == null ? "" : " built: " + shard.lastBuildReport));
+        }
+    }
+
+    // Database images are named after the exhibit's image (see buildDatabase and generateImageDatabases).
+    private static boolean isImageOf(Shard shard, AugmentedImage image) {
+        int index = image.getIndex();
+        return index >= 0
+                && index < shard.exhibitIndices.length
+                && (ExhibitCatalog.getInstance().get(shard.exhibitIndices[index]).imageName + ".jpg").equals(image.getName());
+    }
+
+    private void switchTo(Shard shard) {
+        if (shard == requestedShard || session == null) {
+            return;
+        }
+        requestedShard = shard;
+        switchRequestNanos = System.nanoTime();
+        load(shard)
+                .thenAccept(
+                        database ->
+                                mainHandler.post(
+                                        () -> {
+                                            // Only the most recent switchTo() is applied.
+                                            if (shard != requestedShard) {
+                                                return;
+                                            }
+                                            if (database != null) {
+                                                configure(shard, database);
+                                            } else {
+                                                // The active shard stays, a later switchTo() may try again.
+                                                requestedShard = activeShard;
+                                            }
+                                        }));
+    }
+
+    private void configure(Shard shard, AugmentedImageDatabase database) {
+        config.setAugmentedImageDatabase(database);
+        try {
+            session.configure(config);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not switch to shard " + shard.name, e);
+            requestedShard = activeShard;
+            return;
+        }
+        activeShard = shard;
+        searchCursor = 0;
+        switchCount++;
+        lastSwitchNanos = System.nanoTime() - switchRequestNanos;
+        Log.d(TAG, "Switched to shard " + shard.name + " in " + lastSwitchNanos / 1000000 + " ms");
+
+        preloadNext(shard);
+        if (onShardSwitchedListener != null) {
+            onShardSwitchedListener.onShardSwitched(shard);
+        }
+    }
+
+    // Starts loading the shards next to the active one, and drops the databases of all other shards.
+    private void preloadNext(Shard active) {
+        for (Shard shard : shards) {
+            boolean keep = shard == active;
+            for (Shard next : active.next) {
+                keep |= shard == next;
+            }
+            if (keep) {
+                load(shard);
+            } else {
+                shard.database = null;
+            }
+        }
+    }
+
+    // The database of the shard, starting to load it in the background if it isn't loaded yet. Completes
+    // with null if it could not be loaded, the failed load is then forgotten so the next call tries again.
+    private CompletableFuture<AugmentedImageDatabase> load(Shard shard) {
+        if (shard.database == null) {
+            Session loadSession = session;
+            boolean fromImages = buildFromImages || shard.databaseFile == null;
+            CompletableFuture<AugmentedImageDatabase> future =
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                                long start = System.nanoTime();
+                                AugmentedImageDatabase database =
+                                        fromImages
+                                                ? buildDatabase(loadSession, shard)
+                                                : deserializeDatabase(loadSession, shard);
+                                long loadNanos = System.nanoTime() - start;
+                                mainHandler.post(
+                                        () -> {
+                                            shard.loadCount++;
+                                            shard.lastLoadNanos = loadNanos;
+                                            shard.totalLoadNanos += loadNanos;
+                                        });
+                                Log.d(TAG, "Loaded shard " + shard.name + " in " + loadNanos / 1000000 + " ms");
+                                return database;
+                            },
+                            loader)
+                            .exceptionally(
+                                    throwable -> {
+                                        Log.e(TAG, "Could not load shard " + shard.name, throwable);
+                                        return null;
+                                    });
+            future.thenAccept(
+                    result -> {
+                        if (result == null) {
+                            mainHandler.post(
+                                    () -> {
+                                        if (shard.database == future) {
+                                            shard.database = null;
+                                        }
+                                    });
+                        }
+                    });
+            shard.database = future;
+        }
+        return shard.database;
+    }
+
+    // Runs on the loader.
+    @Nullable
+    private AugmentedImageDatabase deserializeDatabase(Session session, Shard shard) {
+        try (InputStream is = context.getAssets().open(shard.databaseFile)) {
+            return AugmentedImageDatabase.deserialize(session, is);
+        } catch (IOException e) {
+            Log.e(TAG, "IO exception loading augmented image database " + shard.databaseFile, e);
+            return null;
+        }
+    }
+
+    // Runs on the loader: adds the image of every exhibit of the shard to a new database. The images are
+    // decoded in parallel and downsampled, addImage is called in database order on the loader.
+    @Nullable
+    private AugmentedImageDatabase buildDatabase(Session session, Shard shard) {
+        AssetManager assetManager = context.getAssets();
+        long start = System.nanoTime();
+        ExecutorService decoder = Executors.newFixedThreadPool(DECODE_THREAD_COUNT);
+        try {
+            List<Future<Bitmap>> bitmaps = new ArrayList<>(shard.exhibitIndices.length);
+            for (int exhibitIndex : shard.exhibitIndices) {
+                String imageName = ExhibitCatalog.getInstance().get(exhibitIndex).imageName + ".jpg";
+                bitmaps.add(decoder.submit(() -> loadAugmentedImageBitmap(assetManager, imageName)));
+            }
+
+            AugmentedImageDatabase database = new AugmentedImageDatabase(session);
+            long waitNanos = 0;
+            long addNanos = 0;
+            for (int i = 0; i < shard.exhibitIndices.length; i++) {
+                Exhibit exhibit = ExhibitCatalog.getInstance().get(shard.exhibitIndices[i]);
+                long waitStart = System.nanoTime();
+                Bitmap augmentedImageBitmap = bitmaps.get(i).get();
+                long addStart = System.nanoTime();
+                waitNanos += addStart - waitStart;
+                if (augmentedImageBitmap == null) {
+                    return null;
+                }
+                // If the physical size of the image is known, it is passed to the database.
+                // This will improve the initial detection speed. ARCore will still actively estimate the
+                // physical size of the image as it is viewed from multiple viewpoints.
+                if (exhibit.widthMeters > 0) {
+                    database.addImage(exhibit.imageName + ".jpg", augmentedImageBitmap, exhibit.widthMeters);
+                } else {
+                    database.addImage(exhibit.imageName + ".jpg", augmentedImageBitmap);
+                }
+                // The database keeps its own copy of the image.
+                augmentedImageBitmap.recycle();
+                addNanos += System.nanoTime() - addStart;
+            }
+
+            shard.lastBuildReport =
+                    "images=" + shard.exhibitIndices.length
+                            + " totalMs=" + (System.nanoTime() - start) / 1000000
+                            + " decodeWaitMs=" + waitNanos / 1000000
+                            + " addImageMs=" + addNanos / 1000000;
+            Log.d(TAG, "Built shard " + shard.name + ": " + shard.lastBuildReport);
+            return database;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not decode the images of shard " + shard.name, e.getCause());
+            return null;
+        } finally {
+            decoder.shutdownNow();
+        }
+    }
+
+    // Decodes the image at the smallest power of two scale that keeps its shorter side at least
+    // MIN_IMAGE_DIMENSION pixels, ARCore doesn't detect more features in larger images. RGB_565 halves the
+    // memory of the decoded image, ARCore only uses its luminance anyway.
+    @Nullable
+    private static Bitmap loadAugmentedImageBitmap(AssetManager assetManager, String imageName) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream is = assetManager.open(imageName)) {
+                BitmapFactory.decodeStream(is, null, options);
+            }
+            int shorterSide = Math.min(options.outWidth, options.outHeight);
+            int sampleSize = 1;
+            while (shorterSide / (sampleSize * 2) >= MIN_IMAGE_DIMENSION) {
+                sampleSize *= 2;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            try (InputStream is = assetManager.open(imageName)) {
+                return BitmapFactory.decodeStream(is, null, options);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IO exception loading augmented image bitmap.", e);
+        }
+        return null;
+    }
+
+    private static Shard[] parse(InputStream is, int exhibitCount) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String where = SHARDS_FILE + ":" + lineNumber + ": ";
+            String[] fields = line.split("\\|", -1);
+            if (fields.length != FIELD_COUNT) {
+                throw new IOException(where + "expected " + FIELD_COUNT + " fields, found " + fields.length);
+            }
+            String database = fields[1].trim();
+            String next = fields[3].trim();
+            try {
+                shards.add(
+                        new Shard(
+                                fields[0].trim(),
+                                database.equals(NONE) ? null : database,
+                                exhibitIndices(fields[2], exhibitCount),
+                                next.equals(NONE) ? new String[0] : next.split("\\s*,\\s*")));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(where + e.getMessage());
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new IOException(SHARDS_FILE + " has no shards");
+        }
+
+        for (Shard shard : shards) {
+            shard.next = new Shard[shard.nextNames.length];
+            for (int i = 0; i < shard.nextNames.length; i++) {
+                for (Shard other : shards) {
+                    if (other.name.equals(shard.nextNames[i])) {
+                        shard.next[i] = other;
+                    }
+                }
+                if (shard.next[i] == null) {
+                    throw new IOException(SHARDS_FILE + ": shard " + shard.name + " has unknown next shard " + shard.nextNames[i]);
+                }
+            }
+        }
+        return shards.toArray(new Shard[0]);
+    }
+
+    // Parses a list of exhibit indices and ranges, e.g. "0-7,12".
+    private static int[] exhibitIndices(String field, int exhibitCount) {
+        List<Integer> indices = new ArrayList<>();
+        for (String part : field.split(",")) {
+            String[] range = part.trim().split("-");
+            int first = Integer.parseInt(range[0].trim());
+            int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+            for (int index = first; index <= last; index++) {
+                if (index < 0 || index >= exhibitCount) {
+                    throw new IllegalArgumentException("exhibit " + index + " is not in the catalog");
+                }
+                indices.add(index);
+            }
+        }
+        int[] result = new int[indices.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indices.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+/**
+ * Picks the level of detail of an exhibit's model from how large its image appears: the square root of
+ * the image area over the distance to the camera, roughly the angle the image covers in radians. Level 0 is
+ * the full model, every next level is a coarser variant (models/<model>_lod<level>.sfb).
+ *
+ * An exhibit only moves to a coarser level once it is HYSTERESIS smaller than the threshold of its
+ * current level, so a visitor standing right at a threshold doesn't see the model pop back and forth.
+ */
+public class LodSelector {
+
+    // Smallest apparent size (in radians) that still shows level 0, 1, ... Anything smaller shows the
+    // coarsest level the exhibit has.
+    private static final float[] LEVEL_THRESHOLDS = {0.35f, 0.15f};
+
+    // Fraction of its threshold an exhibit has to drop below before it moves to a coarser level.
+    private static final float HYSTERESIS = 0.8f;
+
+    private LodSelector() {}
+
+    // The level to show for an exhibit with levelCount levels that currently shows currentLevel.
+    public static int select(int currentLevel, float apparentSize, int levelCount) {
+        if (levelCount <= 1) {
+            return 0;
+        }
+        int level = 0;
+        while (level < LEVEL_THRESHOLDS.length && level < levelCount - 1) {
+            // Going finer than the current level takes the full threshold, the current level is held on to.
+            float threshold = level < currentLevel ? LEVEL_THRESHOLDS[level] : LEVEL_THRESHOLDS[level] * HYSTERESIS;
+            if (apparentSize >= threshold) {
+                break;
+            }
+            level++;
+        }
+        return level;
+    }
+}
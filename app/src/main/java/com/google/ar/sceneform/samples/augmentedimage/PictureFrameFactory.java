@@ -0,0 +1,235 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Material;
+import com.google.ar.sceneform.rendering.MaterialFactory;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.RenderableDefinition;
+import com.google.ar.sceneform.rendering.RenderableDefinition.Submesh;
+import com.google.ar.sceneform.rendering.Texture;
+import com.google.ar.sceneform.rendering.Vertex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds the picture frame of a video exhibit as one mesh with one material, instead of four corner
+ * models: one draw call and no .sfb to load. The frame is a raised border around the image, its top
+ * textured from textures/frame.jpg like a nine-patch (the corners of the texture on the corners, a strip
+ * of the molding stretched along the sides), so it fits any aspect ratio.
+ *
+ * Frames are built for the image extents rounded to BUCKET_METERS and cached per bucket, the node
+ * showing one is scaled by getFitScale to the exact extents. All frames share the material.
+ *
+ * Only used from the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class PictureFrameFactory {
+
+    private static final String TAG = "PictureFrameFactory";
+
+    // Images within a centimeter of each other share a frame, scaling it by at most a few percent.
+    private static final float BUCKET_METERS = 0.01f;
+    // Frames of the most recently seen image sizes kept. Each is a few KB of vertices.
+    private static final int MAX_CACHED_FRAMES = 8;
+
+    // The border reaches OUTSET_METERS beyond the image and covers OVERLAP_METERS of its edges.
+    private static final float OUTSET_METERS = 0.025f;
+    private static final float OVERLAP_METERS = 0.005f;
+    private static final float HEIGHT_METERS = 0.008f;
+
+    // Where the parts of the frame are in frame.jpg, as fractions of its width and height from the top
+    // left. The molding runs from FRAME_OUTER to FRAME_INNER on every side of the texture.
+    private static final float FRAME_OUTER = 0.08f;
+    private static final float FRAME_INNER = 0.24f;
+    // A clean stretch of the molding, away from the ornaments in the middle of the sides.
+    private static final float STRIP_START = 0.30f;
+    private static final float STRIP_END = 0.38f;
+    // The plain border outside of the molding, on the walls of the frame.
+    private static final float WALL_START = 0.01f;
+    private static final float WALL_END = 0.06f;
+
+    private static final String TEXTURE_PATH = "textures/frame.jpg";
+
+    private static final PictureFrameFactory THE_INSTANCE = new PictureFrameFactory();
+
+    private CompletableFuture<Material> material;
+    // Frames by bucket, least recently used first.
+    private final LinkedHashMap<Long, CompletableFuture<ModelRenderable>> frames = new LinkedHashMap<>(16, 0.75f, true);
+    // Returned by getFitScale, Node.setLocalScale copies it.
+    private final Vector3 fitScale = new Vector3();
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public static PictureFrameFactory getInstance() {
+        return THE_INSTANCE;
+    }
+
+    // Starts loading the texture and material of the frames, the only part that isn't built right away.
+    public CompletableFuture<Material> loadMaterial(Context context) {
+        if (material == null) {
+            material =
+                    Texture.builder()
+                            .setSource(context, Uri.parse(TEXTURE_PATH))
+                            .build()
+                            .thenCompose(texture -> MaterialFactory.makeOpaqueWithTexture(context, texture));
+            material.exceptionally(
+                    throwable -> {
+                        Log.e(TAG, "Exception loading " + TEXTURE_PATH, throwable);
+                        // Loaded again for the next frame that is built.
+                        material = null;
+                        return null;
+                    });
+        }
+        return material;
+    }
+
+    // Returns the frame for an image of extentX by extentZ meters, building it if its bucket has none.
+    public CompletableFuture<ModelRenderable> get(Context context, float extentX, float extentZ) {
+        int bucketX = bucket(extentX);
+        int bucketZ = bucket(extentZ);
+        long key = ((long) bucketX << 32) | bucketZ;
+        CompletableFuture<ModelRenderable> frame = frames.get(key);
+        if (frame != null) {
+            hitCount++;
+            return frame;
+        }
+        missCount++;
+        float width = bucketX * BUCKET_METERS;
+        float depth = bucketZ * BUCKET_METERS;
+        frame =
+                loadMaterial(context)
+                        .thenCompose(loaded -> ModelRenderable.builder().setSource(build(width, depth, loaded)).build());
+        CompletableFuture<ModelRenderable> built = frame;
+        frame.exceptionally(
+                throwable -> {
+                    Log.e(TAG, "Exception building frame", throwable);
+                    if (frames.get(key) == built) {
+                        frames.remove(key);
+                    }
+                    return null;
+                });
+        frames.put(key, frame);
+        while (frames.size() > MAX_CACHED_FRAMES) {
+            // Nodes showing an evicted frame keep it alive.
+            frames.remove(frames.keySet().iterator().next());
+        }
+        return frame;
+    }
+
+    // The scale that fits the frame returned by get to the exact extents. Only valid until the next call.
+    public Vector3 getFitScale(float extentX, float extentZ) {
+        fitScale.set(
+                extentX / (bucket(extentX) * BUCKET_METERS), 1.0f, extentZ / (bucket(extentZ) * BUCKET_METERS));
+        return fitScale;
+    }
+
+    public String stats() {
+        return "frames=" + frames.size() + "/" + MAX_CACHED_FRAMES + " hits=" + hitCount + " misses=" + missCount;
+    }
+
+    private static int bucket(float extent) {
+        return Math.max(1, Math.round(extent / BUCKET_METERS));
+    }
+
+    // The frame around an image of width (x) by depth (z) meters centered on the origin, the image facing +y.
+    private static RenderableDefinition build(float width, float depth, Material material) {
+        float outerX = 0.5f * width + OUTSET_METERS;
+        float outerZ = 0.5f * depth + OUTSET_METERS;
+        float innerX = 0.5f * width - OVERLAP_METERS;
+        float innerZ = 0.5f * depth - OVERLAP_METERS;
+        float[] xs = {-outerX, -innerX, innerX, outerX};
+        float[] zs = {-outerZ, -innerZ, innerZ, outerZ};
+        // Texture coordinates of the columns (and rows) of the grid: the corners of the molding for the
+        // corners, the strip for the sides.
+        float[][] ranges = {
+            {FRAME_OUTER, FRAME_INNER}, {STRIP_START, STRIP_END}, {1.0f - FRAME_INNER, 1.0f - FRAME_OUTER}
+        };
+
+        MeshBuilder mesh = new MeshBuilder();
+        // The top, in 8 cells of the 3 by 3 grid around the image. -z is the upper side of the image.
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                if (row == 1 && column == 1) {
+                    continue;
+                }
+                mesh.addQuad(
+                        new Vector3(xs[column], HEIGHT_METERS, zs[row]),
+                        new Vector3(xs[column + 1], HEIGHT_METERS, zs[row]),
+                        new Vector3(xs[column + 1], HEIGHT_METERS, zs[row + 1]),
+                        new Vector3(xs[column], HEIGHT_METERS, zs[row + 1]),
+                        Vector3.up(),
+                        ranges[column][0], ranges[row][0], ranges[column][1], ranges[row][1]);
+            }
+        }
+        // The outer walls face away from the image, the inner walls face it.
+        addWalls(mesh, outerX, outerZ, 1.0f);
+        addWalls(mesh, innerX, innerZ, -1.0f);
+
+        Submesh submesh = Submesh.builder().setTriangleIndices(mesh.indices).setMaterial(material).build();
+        return RenderableDefinition.builder()
+                .setVertices(mesh.vertices)
+                .setSubmeshes(Arrays.asList(submesh))
+                .build();
+    }
+
+    // The four walls of the rectangle of halfX by halfZ, facing outwards (direction 1) or inwards (-1).
+    private static void addWalls(MeshBuilder mesh, float halfX, float halfZ, float direction) {
+        float[][] corners = {{-halfX, -halfZ}, {halfX, -halfZ}, {halfX, halfZ}, {-halfX, halfZ}};
+        for (int i = 0; i < 4; i++) {
+            float[] from = corners[i];
+            float[] to = corners[(i + 1) % 4];
+            // Sides run along x or along z, their outward normal points away from the center.
+            Vector3 normal =
+                    from[1] == to[1]
+                            ? new Vector3(0.0f, 0.0f, direction * Math.signum(from[1]))
+                            : new Vector3(direction * Math.signum(from[0]), 0.0f, 0.0f);
+            mesh.addQuad(
+                    new Vector3(from[0], 0.0f, from[1]),
+                    new Vector3(to[0], 0.0f, to[1]),
+                    new Vector3(to[0], HEIGHT_METERS, to[1]),
+                    new Vector3(from[0], HEIGHT_METERS, from[1]),
+                    normal,
+                    WALL_START, STRIP_START, WALL_END, STRIP_END);
+        }
+    }
+
+    // Vertices and triangles of the frame. Every quad gets its own vertices, so the texture can be mapped
+    // per quad and the walls get sharp edges.
+    private static class MeshBuilder {
+        final List<Vertex> vertices = new ArrayList<>();
+        final List<Integer> indices = new ArrayList<>();
+
+        // Adds the quad a, b, c, d (in order around it) facing normal. Its texture coordinates go from
+        // (u0, v0) at a to (u1, v1) at c, as fractions of the texture from its top left.
+        void addQuad(Vector3 a, Vector3 b, Vector3 c, Vector3 d, Vector3 normal, float u0, float v0, float u1, float v1) {
+            int first = vertices.size();
+            vertices.add(vertex(a, normal, u0, v0));
+            vertices.add(vertex(b, normal, u1, v0));
+            vertices.add(vertex(c, normal, u1, v1));
+            vertices.add(vertex(d, normal, u0, v1));
+            // Front faces wind counter-clockwise, flip the quad if it winds the other way around normal.
+            Vector3 winding = Vector3.cross(Vector3.subtract(b, a), Vector3.subtract(c, a));
+            if (Vector3.dot(winding, normal) >= 0) {
+                indices.addAll(Arrays.asList(first, first + 1, first + 2, first, first + 2, first + 3));
+            } else {
+                indices.addAll(Arrays.asList(first, first + 2, first + 1, first, first + 3, first + 2));
+            }
+        }
+
+        private static Vertex vertex(Vector3 position, Vector3 normal, float u, float v) {
+            // Sceneform's v points up, the fractions are measured from the top.
+            return Vertex.builder()
+                    .setPosition(position)
+                    .setNormal(normal)
+                    .setUvCoordinate(new Vertex.UvCoordinate(u, 1.0f - v))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The recordings in a directory on external storage. A recording is written as segments of about
+ * segmentBytes each (ScreenRecorder starts the next one at a key frame), and the directory is kept under
+ * quotaBytes, and the storage above one free segment, by deleting the oldest files first. Shared museum
+ * devices record all day, so without this the recordings fill the storage within days.
+ *
+ * The file system work (checking the storage, creating the directory, listing and deleting files and
+ * formatting the names) runs on the store's own thread, the muxers write on the threads of their
+ * recorders and report their write times here. Created and called from the UI thread, except where noted.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class RecordingStore {
+
+    private static final String TAG = "RecordingStore";
+
+    // Called on the UI thread with the new recording, or null if the storage isn't available.
+    public interface OnRecordingCreatedListener {
+        void onCreated(@Nullable Recording recording);
+    }
+
+    // The segments of one recording: <name>_<date>.mp4, then <name>_<date>_2.mp4 and so on.
+    public class Recording {
+        private final String baseName;
+        private int segmentCount = 0;
+
+        private Recording(String baseName) {
+            this.baseName = baseName;
+        }
+
+        public long getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        // The file of the next segment, called on the recorder's writer thread. Room for it is made in the
+        // background.
+        public File nextSegment() {
+            segmentCount++;
+            String name = segmentCount == 1 ? baseName : baseName + "_" + segmentCount;
+            File file = new File(directory, name + ".mp4");
+            synchronized (RecordingStore.this) {
+                openFiles.add(file);
+            }
+            executor.execute(() -> enforceQuota(segmentBytes));
+            return file;
+        }
+
+        // Called on the writer thread after every sample written to a segment.
+        public void onWrite(int bytes, long nanos) {
+            synchronized (RecordingStore.this) {
+                writeCount++;
+                writtenBytes += bytes;
+                writeNanos += nanos;
+                maxWriteNanos = Math.max(maxWriteNanos, nanos);
+            }
+        }
+
+        // Called on the writer thread once a segment is closed, finishNanos is how long closing took.
+        public void onSegmentFinished(File file, boolean success, long finishNanos) {
+            synchronized (RecordingStore.this) {
+                openFiles.remove(file);
+                segmentCountTotal++;
+                maxFinishNanos = Math.max(maxFinishNanos, finishNanos);
+            }
+            executor.execute(
+                    () -> {
+                        if (success) {
+                            files.add(file);
+                            usedBytes += file.length();
+                        }
+                        enforceQuota(0);
+                    });
+        }
+    }
+
+    private final File directory;
+    private final long quotaBytes;
+    private final long segmentBytes;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "RecordingStore"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only used on the store's thread: the finished files, oldest first, and their total size.
+    private final List<File> files = new ArrayList<>();
+    private long usedBytes = 0;
+    private boolean scanned = false;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US);
+
+    // Segments being written. They are only added to files once finished, so they are never evicted.
+    // Guarded by this.
+    private final Set<File> openFiles = new HashSet<>();
+
+    // Statistics, guarded by this.
+    private long writeCount = 0;
+    private long writtenBytes = 0;
+    private long writeNanos = 0;
+    private long maxWriteNanos = 0;
+    private long segmentCountTotal = 0;
+    private long maxFinishNanos = 0;
+    private long evictedCount = 0;
+    private long evictedBytes = 0;
+    private long storedBytes = 0;
+
+    public RecordingStore(File directory, long quotaBytes, long segmentBytes) {
+        this.directory = directory;
+        this.quotaBytes = quotaBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    // Starts a recording named name_<date>, in the background.
+    public void startRecording(String name, OnRecordingCreatedListener listener) {
+        executor.execute(
+                () -> {
+                    Recording recording = prepare() ? new Recording(name + "_" + dateFormat.format(new Date())) : null;
+                    mainHandler.post(() -> listener.onCreated(recording));
+                });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public synchronized String stats() {
+        return "stored=" + storedBytes + "/" + quotaBytes
+                + " segments=" + segmentCountTotal
+                + " open=" + openFiles.size()
+                + " evicted=" + evictedCount + " (" + evictedBytes + " bytes)"
+                + " written=" + writtenBytes
+                + " throughput=" + (writeNanos == 0 ? 0 : writtenBytes * 1000 / writeNanos) + "MB/s"
+                + " writeLatency=" + (writeCount == 0 ? 0 : writeNanos / writeCount / 1000) + "us"
+                + " (max " + maxWriteNanos / 1000 + "us)"
+                + " maxFinish=" + maxFinishNanos / 1_000_000 + "ms";
+    }
+
+    // On the store's thread: checks the storage and creates the directory. Lists the existing recordings
+    // the first time.
+    private boolean prepare() {
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            Log.w(TAG, "External storage not mounted");
+            return false;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory);
+            return false;
+        }
+        if (!scanned) {
+            File[] existing = directory.listFiles((dir, name) -> name.endsWith(".mp4"));
+            if (existing != null) {
+                Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+                for (File file : existing) {
+                    files.add(file);
+                    usedBytes += file.length();
+                }
+            }
+            scanned = true;
+        }
+        enforceQuota(segmentBytes);
+        return true;
+    }
+
+    // On the store's thread: deletes the oldest recordings until reservedBytes more fit in the quota and
+    // on the storage.
+    private void enforceQuota(long reservedBytes) {
+        while (!files.isEmpty()
+                && (usedBytes + reservedBytes > quotaBytes || directory.getUsableSpace() < reservedBytes)) {
+            File oldest = files.remove(0);
+            long size = oldest.length();
+            usedBytes -= size;
+            if (oldest.delete()) {
+                synchronized (this) {
+                    evictedCount++;
+                    evictedBytes += size;
+                }
+                Log.d(TAG, "Evicted " + oldest);
+            }
+        }
+        synchronized (this) {
+            storedBytes = usedBytes;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.Log;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shared, bounded cache of the renderables loaded from models/<name>.sfb. Every AugmentedImageNode
+ * asks the cache for its renderable instead of building its own, so each .sfb is only decoded once.
+ * The cache is bounded both by number of entries and by the (approximate) size of the .sfb files,
+ * and evicts the least recently used entries first. An entry is charged for its .sfb once it has
+ * loaded, the size is read on a background thread.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class RenderableCache {
+
+    private static final String TAG = "RenderableCache";
+
+    // Default limits. A gallery room rarely has more than a handful of exhibits in view, so 8 models
+    // (or 32 MB of .sfb data, whichever is hit first) keeps the recently visited paintings warm.
+    private static final int DEFAULT_MAX_ENTRIES = 8;
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    // Used as the size of an entry when the .sfb is compressed inside the apk and its length can't be read.
+    private static final long UNKNOWN_ENTRY_BYTES = 1024 * 1024;
+
+    private static final RenderableCache THE_INSTANCE =
+            new RenderableCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+
+    // One cache entry: the (possibly still loading) renderable and the number of bytes it is charged for,
+    // 0 until it has loaded.
+    private static class Entry {
+        final CompletableFuture<ModelRenderable> renderable;
+        long bytes = 0;
+
+        Entry(CompletableFuture<ModelRenderable> renderable) {
+            this.renderable = renderable;
+        }
+    }
+
+    // accessOrder = true makes the LinkedHashMap iterate from least to most recently used.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public static RenderableCache getInstance() {
+        return THE_INSTANCE;
+    }
+
+    RenderableCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the renderable loaded from models/<modelName>.sfb, starting the load if it isn't cached.
+    public synchronized CompletableFuture<ModelRenderable> get(Context context, String modelName) {
+        Entry entry = entries.get(modelName);
+        if (entry != null) {
+            hitCount++;
+            return entry.renderable;
+        }
+        missCount++;
+
+        String path = "models/" + modelName + ".sfb";
+        CompletableFuture<ModelRenderable> renderable =
+                ModelRenderable.builder()
+                        .setSource(context, Uri.parse(path))
+                        .build();
+        Entry newEntry = new Entry(renderable);
+        entries.put(modelName, newEntry);
+
+        // Opening the asset to read its size would block the caller, which is usually the UI thread.
+        renderable.thenRunAsync(() -> charge(modelName, newEntry, assetBytes(context, path)));
+        // A failed load shouldn't stay cached, otherwise the exhibit could never be loaded again.
+        renderable.exceptionally(
+                throwable -> {
+                    Log.e(TAG, "Exception loading " + path, throwable);
+                    remove(modelName, newEntry);
+                    return null;
+                });
+
+        trimToSize(maxEntries, maxBytes);
+        return renderable;
+    }
+
+    // Called from the activity's onTrimMemory. The more pressure the system is under, the more is evicted.
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0, 0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(Math.max(1, entries.size() / 2), currentBytes / 2);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + ") " + stats());
+    }
+
+    public synchronized String stats() {
+        return "entries=" + entries.size() + "/" + maxEntries
+                + " bytes=" + currentBytes + "/" + maxBytes
+                + " hits=" + hitCount
+                + " misses=" + missCount
+                + " evictions=" + evictionCount;
+    }
+
+    // Evicts least recently used entries until the cache fits in the given limits. Nodes that are still
+    // showing an evicted renderable keep it alive, it is only dropped from the cache.
+    private void trimToSize(int entryLimit, long byteLimit) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > entryLimit || currentBytes > byteLimit)) {
+            Entry evicted = iterator.next().getValue();
+            iterator.remove();
+            currentBytes -= evicted.bytes;
+            evictionCount++;
+        }
+    }
+
+    // Charges the entry for its .sfb once it has loaded, unless it was evicted in the meantime.
+    private synchronized void charge(String modelName, Entry entry, long bytes) {
+        if (entries.get(modelName) == entry) {
+            currentBytes += bytes - entry.bytes;
+            entry.bytes = bytes;
+            trimToSize(maxEntries, maxBytes);
+        }
+    }
+
+    private synchronized void remove(String modelName, Entry entry) {
+        if (entries.get(modelName) == entry) {
+            entries.remove(modelName);
+            currentBytes -= entry.bytes;
+        }
+    }
+
+    private static long assetBytes(Context context, String path) {
+        try (AssetFileDescriptor fd = context.getAssets().openFd(path)) {
+            return fd.getLength();
+        } catch (IOException e) {
+            return UNKNOWN_ENTRY_BYTES;
+        }
+    }
+}
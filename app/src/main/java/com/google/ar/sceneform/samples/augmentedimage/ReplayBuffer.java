@@ -0,0 +1,299 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the last MAX_SAVE_SECONDS of a ScreenRecorder session as encoded samples, so a visitor can save a
+ * highlight after it happened instead of recording the whole visit. The samples are copied into one
+ * ring of direct memory that is allocated once: when the ring is full, or the oldest sample is older than
+ * the window, the oldest samples are overwritten. Nothing is written to storage until save() is called,
+ * which muxes the samples as they are (no re-encoding) from a video key frame on.
+ *
+ * Samples are added on the writer thread of ScreenRecorder, saving runs on a thread of its own.
+ */
+public class ReplayBuffer {
+
+    private static final String TAG = "ReplayBuffer";
+
+    // Called on the UI thread once a replay is saved, or saving failed.
+    public interface OnSavedListener {
+        void onSaved(File file, boolean success);
+    }
+
+    public static final int MIN_SAVE_SECONDS = 15;
+    public static final int MAX_SAVE_SECONDS = 60;
+    // A key frame comes every second, the extra time keeps one at the start of the longest replay.
+    private static final long WINDOW_US = (MAX_SAVE_SECONDS + 2) * 1_000_000L;
+    // Share of the ring the audio takes at most, the rest is the video's bitrate budget.
+    private static final int AUDIO_BITRATE_RESERVE = 160_000;
+
+    // Only tracks 0 (video) and 1 (audio) of ScreenRecorder.
+    private static final int VIDEO_TRACK = 0;
+    private static final int TRACK_COUNT = 2;
+
+    // Where a sample is in the ring.
+    private static class Entry {
+        int track;
+        int offset;
+        int size;
+        long presentationTimeUs;
+        int flags;
+
+        boolean isVideoKeyFrame() {
+            return track == VIDEO_TRACK && (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        }
+    }
+
+    private final ByteBuffer ring;
+    // Oldest first. The entries are contiguous in the ring, from the oldest one's offset to writeOffset.
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ArrayDeque<Entry> freeEntries = new ArrayDeque<>();
+    private final MediaFormat[] formats = new MediaFormat[TRACK_COUNT];
+    private int writeOffset = 0;
+    private long usedBytes = 0;
+    // Set when a video sample was left out, the video is skipped up to the next key frame.
+    private boolean waitingForKeyFrame = false;
+
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ReplaySaver"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Statistics.
+    private long evictedCount = 0;
+    private long droppedCount = 0;
+    private long saveCount = 0;
+    private long lastSaveMillis = 0;
+
+    public ReplayBuffer(int capacityBytes) {
+        ring = ByteBuffer.allocateDirect(capacityBytes);
+    }
+
+    // The highest video bitrate at which the ring holds the whole window.
+    public int getMaxVideoBitrate() {
+        return (int) (ring.capacity() * 8L * 1_000_000L / WINDOW_US) - AUDIO_BITRATE_RESERVE;
+    }
+
+    // Forgets everything, called when a new session starts with new encoders.
+    public synchronized void clear() {
+        clearSamples();
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            formats[i] = null;
+        }
+    }
+
+    // A new video format comes with a new encoder (the capture tier changed). A file can't switch formats,
+    // so the samples of the previous one are dropped and replays start over from there.
+    public synchronized void setFormat(int track, MediaFormat format) {
+        if (track == VIDEO_TRACK && formats[VIDEO_TRACK] != null) {
+            clearSamples();
+        }
+        formats[track] = format;
+    }
+
+    // Copies a sample into the ring, overwriting the oldest samples to make room. Leaves sample.data as it was.
+    public synchronized void add(EncodedSampleQueue.Sample sample) {
+        int size = sample.info.size;
+        if (sample.track == VIDEO_TRACK) {
+            if (sample.isKeyFrame()) {
+                waitingForKeyFrame = false;
+            } else if (waitingForKeyFrame) {
+                droppedCount++;
+                return;
+            }
+        }
+        // A sample this large would empty most of the window, it is left out (and so is the video up to the
+        // next key frame, as it can't be decoded without it).
+        if (size > ring.capacity() / 4) {
+            waitingForKeyFrame |= sample.track == VIDEO_TRACK;
+            droppedCount++;
+            return;
+        }
+        int offset = allocate(size);
+        int position = sample.data.position();
+        ring.limit(offset + size);
+        ring.position(offset);
+        ring.put(sample.data);
+        sample.data.position(position);
+
+        Entry entry = freeEntries.isEmpty() ? new Entry() : freeEntries.poll();
+        entry.track = sample.track;
+        entry.offset = offset;
+        entry.size = size;
+        entry.presentationTimeUs = sample.info.presentationTimeUs;
+        entry.flags = sample.info.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        entries.add(entry);
+        writeOffset = offset + size;
+        usedBytes += size;
+
+        while (entries.size() > 1 && entry.presentationTimeUs - entries.peek().presentationTimeUs > WINDOW_US) {
+            evictOldest();
+        }
+    }
+
+    // Writes the last seconds (clamped to MIN_SAVE_SECONDS..MAX_SAVE_SECONDS) to the first segment of
+    // recording in the background. The replay starts at the last video key frame at or before that point,
+    // or the oldest one if the buffer doesn't reach back that far.
+    public void save(int seconds, RecordingStore.Recording recording, OnSavedListener listener) {
+        long durationUs = Math.max(MIN_SAVE_SECONDS, Math.min(MAX_SAVE_SECONDS, seconds)) * 1_000_000L;
+        saveExecutor.execute(
+                () -> {
+                    File file = recording.nextSegment();
+                    boolean success = write(durationUs, file, recording);
+                    mainHandler.post(() -> listener.onSaved(file, success));
+                });
+    }
+
+    public void shutdown() {
+        saveExecutor.shutdown();
+    }
+
+    public synchronized String stats() {
+        long spanMillis =
+                entries.isEmpty() ? 0 : (entries.peekLast().presentationTimeUs - entries.peek().presentationTimeUs) / 1000;
+        return "samples=" + entries.size()
+                + " bytes=" + usedBytes + "/" + ring.capacity()
+                + " span=" + spanMillis + "ms"
+                + " evicted=" + evictedCount
+                + " dropped=" + droppedCount
+                + " saves=" + saveCount
+                + " lastSave=" + lastSaveMillis + "ms";
+    }
+
+    private void clearSamples() {
+        while (!entries.isEmpty()) {
+            freeEntries.add(entries.poll());
+        }
+        writeOffset = 0;
+        usedBytes = 0;
+        waitingForKeyFrame = false;
+    }
+
+    // The offset of a free range of size bytes, after evicting as many of the oldest entries as needed.
+    private int allocate(int size) {
+        while (true) {
+            if (entries.isEmpty()) {
+                return 0;
+            }
+            int oldestOffset = entries.peek().offset;
+            if (oldestOffset < writeOffset) {
+                // Free from writeOffset to the end and from the start to the oldest entry.
+                if (writeOffset + size <= ring.capacity()) {
+                    return writeOffset;
+                }
+                if (size <= oldestOffset) {
+                    return 0;
+                }
+            } else if (oldestOffset > writeOffset && writeOffset + size <= oldestOffset) {
+                // Wrapped around, free between the newest and the oldest entry.
+                return writeOffset;
+            }
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        Entry oldest = entries.poll();
+        usedBytes -= oldest.size;
+        freeEntries.add(oldest);
+        evictedCount++;
+    }
+
+    // On the save thread. Copies the samples of the replay out of the ring, so adding goes on while the
+    // file is written, then muxes them.
+    private boolean write(long durationUs, File file, RecordingStore.Recording recording) {
+        long startNanos = System.nanoTime();
+        MediaFormat[] trackFormats = new MediaFormat[TRACK_COUNT];
+        List<Entry> samples = new ArrayList<>();
+        ByteBuffer data;
+        synchronized (this) {
+            Entry start = null;
+            long newestUs = entries.isEmpty() ? 0 : entries.peekLast().presentationTimeUs;
+            for (Entry entry : entries) {
+                if (entry.isVideoKeyFrame()) {
+                    if (start == null || entry.presentationTimeUs <= newestUs - durationUs) {
+                        start = entry;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            if (start == null || formats[VIDEO_TRACK] == null) {
+                Log.w(TAG, "Nothing to save yet");
+                recording.onSegmentFinished(file, false, 0);
+                return false;
+            }
+            int totalSize = 0;
+            for (Entry entry : entries) {
+                if (entry.presentationTimeUs >= start.presentationTimeUs && formats[entry.track] != null) {
+                    totalSize += entry.size;
+                }
+            }
+            data = ByteBuffer.allocateDirect(totalSize);
+            for (Entry entry : entries) {
+                if (entry.presentationTimeUs < start.presentationTimeUs || formats[entry.track] == null) {
+                    continue;
+                }
+                Entry copy = new Entry();
+                copy.track = entry.track;
+                copy.offset = data.position();
+                copy.size = entry.size;
+                copy.presentationTimeUs = entry.presentationTimeUs;
+                copy.flags = entry.flags;
+                samples.add(copy);
+                ring.limit(entry.offset + entry.size);
+                ring.position(entry.offset);
+                data.put(ring);
+            }
+            System.arraycopy(formats, 0, trackFormats, 0, TRACK_COUNT);
+        }
+
+        MediaMuxer muxer = null;
+        try {
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int[] muxerTracks = new int[TRACK_COUNT];
+            for (int track = 0; track < TRACK_COUNT; track++) {
+                muxerTracks[track] = trackFormats[track] != null ? muxer.addTrack(trackFormats[track]) : -1;
+            }
+            muxer.start();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            for (Entry sample : samples) {
+                data.limit(sample.offset + sample.size);
+                data.position(sample.offset);
+                info.set(sample.offset, sample.size, sample.presentationTimeUs, sample.flags);
+                long writeStartNanos = System.nanoTime();
+                muxer.writeSampleData(muxerTracks[sample.track], data, info);
+                recording.onWrite(sample.size, System.nanoTime() - writeStartNanos);
+            }
+            long finishStartNanos = System.nanoTime();
+            muxer.stop();
+            muxer.release();
+            recording.onSegmentFinished(file, true, System.nanoTime() - finishStartNanos);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not save the replay to " + file, e);
+            if (muxer != null) {
+                muxer.release();
+            }
+            file.delete();
+            recording.onSegmentFinished(file, false, 0);
+            return false;
+        }
+        synchronized (this) {
+            saveCount++;
+            lastSaveMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        }
+        Log.d(TAG, "Saved " + samples.size() + " samples to " + file);
+        return true;
+    }
+}
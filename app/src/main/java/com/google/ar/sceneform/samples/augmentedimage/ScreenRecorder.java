@@ -0,0 +1,830 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.media.projection.MediaProjection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Captures the screen, and the microphone if allowed, without ever holding up the AR render loop. The
+ * VirtualDisplay of the MediaProjection renders into the input surface of an AVC encoder, the microphone
+ * is encoded to AAC, and both encoders hand their output through an EncodedSampleQueue to a writer
+ * thread. When the writer falls behind, samples are dropped (video up to the next key frame) instead of
+ * the encoders waiting.
+ *
+ * The writer is the only thread touching the output: while a recording is open (startFile() to
+ * stopFile()) it muxes the samples into the segments of its RecordingStore.Recording, each starting at a
+ * video key frame, and while a ReplayBuffer is set it keeps the last minute of samples in it. Capturing without either only encodes.
+ *
+ * The size and frame rate are those of a CaptureTier. A new tier is applied on the codec thread by a new
+ * video encoder taking over the VirtualDisplay, which starts a new segment of the open recording without
+ * stopping the capture. setTier() only hands the tier over, so it is cheap enough to call every frame.
+ *
+ * The video bitrate follows the measured encoder throughput: every ADAPT_INTERVAL_US the encoded frame
+ * rate and the fill of the queue are checked. The bitrate goes down when the encoder or the writer can't
+ * keep up and slowly back up while both have room. With a ReplayBuffer it stays low enough for the
+ * buffer to hold its whole window.
+ *
+ * Only used from the UI thread. stop() and stopFile() return right away, the file is finished on the
+ * writer thread and the OnFinishedListener is called on the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public class ScreenRecorder {
+
+    private static final String TAG = "ScreenRecorder";
+
+    // Called on the UI thread once a segment file is complete, or recording it failed.
+    public interface OnFinishedListener {
+        void onFinished(File file, boolean success);
+    }
+
+    // Limits the frames the surface hands to the encoder. Public as MediaFormat.KEY_MAX_FPS_TO_ENCODER from
+    // Android 10, the encoders of earlier versions already read it.
+    private static final String KEY_MAX_FPS_TO_ENCODER = "max-fps-to-encoder";
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+    // The first bitrate is this many bits per pixel per frame, within MIN_BITRATE and MAX_BITRATE.
+    private static final float BITS_PER_PIXEL = 0.1f;
+    private static final int MIN_BITRATE = 1_000_000;
+    private static final int MAX_BITRATE = 10_000_000;
+    private static final long ADAPT_INTERVAL_US = 1_000_000L;
+
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_BITRATE = 128_000;
+    private static final long AUDIO_DEQUEUE_TIMEOUT_US = 10_000L;
+
+    // A couple of seconds of video at the highest bitrate.
+    private static final long QUEUE_BYTES = 8L * 1024 * 1024;
+    private static final long WRITER_POLL_MILLIS = 100;
+    // Once stopped, the writer waits this long for the encoders to flush.
+    private static final long STOP_TIMEOUT_NANOS = 3_000_000_000L;
+
+    private static final int VIDEO_TRACK = 0;
+    private static final int AUDIO_TRACK = 1;
+    private static final int TRACK_COUNT = 2;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The encoders and threads of one capture, from start() to stop(). A new capture can start while the
+    // writer of the previous one is still finishing.
+    private class Session {
+        final EncodedSampleQueue queue = new EncodedSampleQueue(QUEUE_BYTES);
+        final HandlerThread codecThread = new HandlerThread("ScreenRecorderCodec");
+        Handler codecHandler;
+        // Replaced when the tier changes, the output of the previous encoder is dropped.
+        volatile MediaCodec videoEncoder;
+        // The tier being captured, only used on the codec thread once the session started.
+        CaptureTier tier;
+        // The tier of the last setTier() call, which the codec thread switches to.
+        volatile CaptureTier requestedTier;
+        int displayWidth;
+        int displayHeight;
+        int densityDpi;
+        VirtualDisplay display;
+        @Nullable AudioRecord audioRecord;
+        @Nullable MediaCodec audioEncoder;
+        int trackCount = 1;
+        // Set to false by stop(), read by the audio, writer and codec threads. The display is only
+        // resized or given a new surface while running, under the lock of the session.
+        volatile boolean running = true;
+        volatile long stopNanos = 0;
+
+        // Only used on the codec thread.
+        boolean waitingForKeyFrame = false;
+        long windowStartUs = 0;
+        int windowFrames = 0;
+        int windowDrops = 0;
+
+        // The recording the writer should write to next, handed over from the UI thread.
+        boolean fileRequestPending = false;
+        @Nullable RecordingStore.Recording requestedRecording;
+        @Nullable OnFinishedListener requestedListener;
+    }
+
+    @Nullable private Session session;
+    @Nullable private volatile ReplayBuffer replayBuffer;
+    private boolean fileOpen = false;
+    private CaptureTier tier = CaptureTier.FULL;
+    private volatile int width;
+    private volatile int height;
+
+    // Statistics, written by the recording threads.
+    private volatile int bitrate;
+    private volatile long bitrateChangeCount = 0;
+    private volatile long encodedFrameCount = 0;
+    private volatile long droppedFrameCount = 0;
+    private volatile long droppedAudioCount = 0;
+    private volatile long writtenBytes = 0;
+    private volatile long segmentCount = 0;
+    private volatile float encodedFrameRate = 0;
+    private long tierSwitchCount = 0;
+
+    public boolean isCapturing() {
+        return session != null;
+    }
+
+    public boolean isRecordingFile() {
+        return fileOpen;
+    }
+
+    // Keeps the last minute of the capture in replayBuffer from now on (or stops doing so if null).
+    public void setReplayBuffer(@Nullable ReplayBuffer replayBuffer) {
+        this.replayBuffer = replayBuffer;
+    }
+
+    // Starts capturing the projection of a display of width x height at the current tier. Nothing is
+    // written until startFile() or setReplayBuffer(). Returns false if the encoders couldn't be set up.
+    public boolean start(MediaProjection projection, int width, int height, int densityDpi, boolean withAudio) {
+        if (session != null) {
+            return false;
+        }
+        Session newSession = new Session();
+        newSession.displayWidth = width;
+        newSession.displayHeight = height;
+        newSession.densityDpi = densityDpi;
+        newSession.codecThread.start();
+        newSession.codecHandler = new Handler(newSession.codecThread.getLooper());
+        int captureWidth = captureSize(width, tier);
+        int captureHeight = captureSize(height, tier);
+        int captureBitrate = initialBitrate(captureWidth, captureHeight, tier);
+        Surface inputSurface;
+        try {
+            newSession.videoEncoder = createVideoEncoder(newSession, tier, captureWidth, captureHeight, captureBitrate);
+            inputSurface = newSession.videoEncoder.createInputSurface();
+            if (withAudio) {
+                if (setUpAudio(newSession)) {
+                    newSession.trackCount = TRACK_COUNT;
+                } else {
+                    Log.w(TAG, "Recording without audio");
+                }
+            }
+            newSession.videoEncoder.start();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not set up the encoders", e);
+            releaseEncoders(newSession);
+            newSession.codecThread.quitSafely();
+            return false;
+        }
+        newSession.tier = tier;
+        newSession.requestedTier = tier;
+        this.width = captureWidth;
+        this.height = captureHeight;
+        bitrate = captureBitrate;
+        newSession.display =
+                projection.createVirtualDisplay(
+                        "ScreenRecorder",
+                        captureWidth,
+                        captureHeight,
+                        densityDpi,
+                        DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
+                        inputSurface,
+                        null,
+                        null);
+
+        session = newSession;
+        new Thread(() -> runWriter(newSession), "ScreenRecorderWriter").start();
+        if (newSession.audioEncoder != null) {
+            new Thread(() -> runAudio(newSession), "ScreenRecorderAudio").start();
+        }
+        Log.d(TAG, "Capturing " + this.width + "x" + this.height + " at " + tier + ", " + bitrate + " bps");
+        return true;
+    }
+
+    // Captures at tier from now on. While capturing, the switch is made on the codec thread (see
+    // switchTier), creating an encoder takes far too long for the render loop.
+    public void setTier(CaptureTier tier) {
+        this.tier = tier;
+        Session current = session;
+        if (current == null || current.requestedTier == tier) {
+            return;
+        }
+        current.requestedTier = tier;
+        current.codecHandler.post(() -> switchTier(current, tier));
+    }
+
+    // On the codec thread: a new video encoder takes over the VirtualDisplay, and the open recording goes
+    // on in a new segment from the new encoder's first key frame. The projection, the audio and the writer
+    // keep running. If the new encoder can't be set up the capture stays at its tier.
+    private void switchTier(Session session, CaptureTier tier) {
+        if (tier != session.requestedTier || tier == session.tier || !session.running) {
+            // A later setTier() call or stop() made this one out of date.
+            return;
+        }
+        int newWidth = captureSize(session.displayWidth, tier);
+        int newHeight = captureSize(session.displayHeight, tier);
+        int newBitrate = initialBitrate(newWidth, newHeight, tier);
+        MediaCodec encoder = null;
+        Surface inputSurface;
+        try {
+            encoder = createVideoEncoder(session, tier, newWidth, newHeight, newBitrate);
+            inputSurface = encoder.createInputSurface();
+            encoder.start();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not switch to " + tier + ", staying at " + session.tier, e);
+            if (encoder != null) {
+                encoder.release();
+            }
+            return;
+        }
+        MediaCodec previous = session.videoEncoder;
+        synchronized (session) {
+            if (!session.running) {
+                encoder.release();
+                return;
+            }
+            // The encoders call back on this thread, so their callbacks only run after this and the output
+            // of the previous encoder is dropped from here on.
+            session.videoEncoder = encoder;
+            session.display.resize(newWidth, newHeight, session.densityDpi);
+            session.display.setSurface(inputSurface);
+        }
+        session.tier = tier;
+        session.waitingForKeyFrame = false;
+        session.windowStartUs = 0;
+        width = newWidth;
+        height = newHeight;
+        bitrate = newBitrate;
+        tierSwitchCount++;
+        try {
+            previous.stop();
+        } catch (IllegalStateException e) {
+            // Stopped by an error.
+        }
+        previous.release();
+        Log.d(TAG, "Capturing " + newWidth + "x" + newHeight + " at " + tier + ", " + newBitrate + " bps");
+    }
+
+    // A side of the display captured at tier. Many encoders only take multiples of 16.
+    private static int captureSize(int displaySize, CaptureTier tier) {
+        return (int) (displaySize * tier.scale) / 16 * 16;
+    }
+
+    private int initialBitrate(int width, int height, CaptureTier tier) {
+        return Math.max(MIN_BITRATE, Math.min(maxBitrate(), (int) (width * height * tier.frameRate * BITS_PER_PIXEL)));
+    }
+
+    // A video encoder for the display of session at tier, configured but not started.
+    private MediaCodec createVideoEncoder(Session session, CaptureTier tier, int width, int height, int bitrate)
+            throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, tier.frameRate);
+        format.setFloat(KEY_MAX_FPS_TO_ENCODER, tier.frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+        // The screen only changes when the scene does, repeated frames keep the frame rate steady.
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, 1_000_000L / tier.frameRate);
+        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        try {
+            encoder.setCallback(new VideoCallback(session), session.codecHandler);
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            encoder.release();
+            throw e;
+        }
+        return encoder;
+    }
+
+    // Starts writing the capture to the segments of recording, from the next video key frame on. listener
+    // is called for every segment.
+    public void startFile(RecordingStore.Recording recording, OnFinishedListener listener) {
+        if (session == null) {
+            return;
+        }
+        requestFile(session, recording, listener);
+        fileOpen = true;
+        Session current = session;
+        // Read on the codec thread, which is where the encoder is replaced.
+        current.codecHandler.post(() -> requestKeyFrame(current.videoEncoder));
+    }
+
+    // Finishes the file, the capture goes on.
+    public void stopFile() {
+        if (fileOpen) {
+            requestFile(session, null, null);
+            fileOpen = false;
+        }
+    }
+
+    // Stops capturing. The encoders are flushed and an open file is finished in the background.
+    public void stop() {
+        if (session == null) {
+            return;
+        }
+        Session stopping = session;
+        session = null;
+        fileOpen = false;
+        synchronized (stopping) {
+            // The codec thread doesn't switch the encoder or touch the display after this.
+            stopping.running = false;
+            stopping.stopNanos = System.nanoTime();
+            stopping.display.release();
+        }
+        try {
+            stopping.videoEncoder.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Could not end the video stream", e);
+        }
+        // The audio thread sees running == false and ends its stream.
+    }
+
+    public String stats() {
+        return "capturing=" + (session != null)
+                + " file=" + fileOpen
+                + " tier=" + tier + " (" + tierSwitchCount + " switches)"
+                + " size=" + width + "x" + height
+                + " bitrate=" + bitrate + " (" + bitrateChangeCount + " changes)"
+                + " fps=" + Math.round(encodedFrameRate)
+                + " frames=" + encodedFrameCount
+                + " dropped=" + droppedFrameCount
+                + " droppedAudio=" + droppedAudioCount
+                + " written=" + writtenBytes + " in " + segmentCount + " segments"
+                + " queueHighWater=" + (session != null ? session.queue.getHighWaterBytes() : 0);
+    }
+
+    private void requestFile(
+            Session session, @Nullable RecordingStore.Recording recording, @Nullable OnFinishedListener listener) {
+        synchronized (session) {
+            session.fileRequestPending = true;
+            session.requestedRecording = recording;
+            session.requestedListener = listener;
+        }
+    }
+
+    // With a ReplayBuffer, the bitrate at which it holds its whole window.
+    private int maxBitrate() {
+        ReplayBuffer replay = replayBuffer;
+        return replay == null ? MAX_BITRATE : Math.max(MIN_BITRATE, Math.min(MAX_BITRATE, replay.getMaxVideoBitrate()));
+    }
+
+    private boolean setUpAudio(Session session) {
+        int minBufferSize =
+                AudioRecord.getMinBufferSize(AUDIO_SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            return false;
+        }
+        AudioRecord record =
+                new AudioRecord(
+                        MediaRecorder.AudioSource.MIC,
+                        AUDIO_SAMPLE_RATE,
+                        AudioFormat.CHANNEL_IN_MONO,
+                        AudioFormat.ENCODING_PCM_16BIT,
+                        minBufferSize * 2);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return false;
+        }
+        try {
+            MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, AUDIO_SAMPLE_RATE, 1);
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BITRATE);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, minBufferSize);
+            MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+            session.audioEncoder = encoder;
+            session.audioRecord = record;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not set up the audio encoder", e);
+            record.release();
+            return false;
+        }
+    }
+
+    // Output of the video encoder, on the codec thread.
+    private class VideoCallback extends MediaCodec.Callback {
+        private final Session session;
+
+        VideoCallback(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // The input is the surface.
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (codec != session.videoEncoder) {
+                // The last frames of the encoder of the previous tier, which may be released by now.
+                try {
+                    codec.releaseOutputBuffer(index, false);
+                } catch (IllegalStateException e) {
+                    // Already released.
+                }
+                return;
+            }
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            // The codec config (SPS/PPS) is also in the output format, which is what the muxer takes.
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                info.size = 0;
+            }
+            if (info.size > 0) {
+                encodedFrameCount++;
+                session.windowFrames++;
+                boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                if (session.waitingForKeyFrame && !keyFrame) {
+                    dropFrame(session, codec);
+                } else {
+                    EncodedSampleQueue.Sample sample = session.queue.copy(VIDEO_TRACK, codec.getOutputBuffer(index), info);
+                    if (sample != null) {
+                        session.waitingForKeyFrame = false;
+                        session.queue.put(sample);
+                    } else {
+                        // The frames after a dropped one can't be decoded until the next key frame.
+                        session.waitingForKeyFrame = true;
+                        dropFrame(session, codec);
+                    }
+                }
+                adaptBitrate(session, codec, info.presentationTimeUs);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if (endOfStream) {
+                session.queue.putEndOfStream(VIDEO_TRACK);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.e(TAG, "Video encoder error", e);
+            if (codec != session.videoEncoder) {
+                return;
+            }
+            session.queue.putEndOfStream(VIDEO_TRACK);
+            mainHandler.post(
+                    () -> {
+                        if (ScreenRecorder.this.session == session) {
+                            stop();
+                        }
+                    });
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            if (codec == session.videoEncoder) {
+                session.queue.putFormat(VIDEO_TRACK, format);
+            }
+        }
+    }
+
+    // On the codec thread.
+    private void dropFrame(Session session, MediaCodec codec) {
+        droppedFrameCount++;
+        session.windowDrops++;
+        requestKeyFrame(codec);
+    }
+
+    // On the codec thread.
+    private static void requestKeyFrame(MediaCodec codec) {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            codec.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            // Already stopped.
+        }
+    }
+
+    // On the codec thread: once per ADAPT_INTERVAL_US, lowers the bitrate if frames were dropped, the
+    // queue is filling up or the encoder falls below the frame rate, and raises it if everything has room.
+    private void adaptBitrate(Session session, MediaCodec codec, long presentationTimeUs) {
+        if (session.windowStartUs == 0) {
+            session.windowStartUs = presentationTimeUs;
+            return;
+        }
+        long elapsedUs = presentationTimeUs - session.windowStartUs;
+        if (elapsedUs < ADAPT_INTERVAL_US) {
+            return;
+        }
+        encodedFrameRate = session.windowFrames * 1_000_000f / elapsedUs;
+        float fill = session.queue.getFill();
+        int maxBitrate = maxBitrate();
+        int frameRate = session.tier.frameRate;
+        int newBitrate = bitrate;
+        if (session.windowDrops > 0 || fill > 0.5f || encodedFrameRate < frameRate * 0.8f) {
+            newBitrate = Math.max(MIN_BITRATE, bitrate * 3 / 4);
+        } else if (fill < 0.1f && encodedFrameRate >= frameRate * 0.95f) {
+            newBitrate = bitrate + bitrate / 10;
+        }
+        newBitrate = Math.min(maxBitrate, newBitrate);
+        if (newBitrate != bitrate) {
+            Bundle parameters = new Bundle();
+            parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, newBitrate);
+            codec.setParameters(parameters);
+            bitrate = newBitrate;
+            bitrateChangeCount++;
+        }
+        session.windowStartUs = presentationTimeUs;
+        session.windowFrames = 0;
+        session.windowDrops = 0;
+    }
+
+    // The audio thread: reads the microphone into the audio encoder (synchronous mode) and queues its
+    // output, until the session stops. Timestamps are on the same clock as the video frames.
+    private void runAudio(Session session) {
+        MediaCodec encoder = session.audioEncoder;
+        AudioRecord record = session.audioRecord;
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long startUs = System.nanoTime() / 1000;
+        long samplesRead = 0;
+        boolean inputEnded = false;
+        try {
+            record.startRecording();
+            while (true) {
+                if (!inputEnded) {
+                    int inputIndex = encoder.dequeueInputBuffer(AUDIO_DEQUEUE_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer buffer = encoder.getInputBuffer(inputIndex);
+                        buffer.clear();
+                        int read = Math.max(0, record.read(buffer, buffer.remaining()));
+                        long presentationTimeUs = startUs + samplesRead * 1_000_000L / AUDIO_SAMPLE_RATE;
+                        // 16 bit mono.
+                        samplesRead += read / 2;
+                        inputEnded = !session.running;
+                        encoder.queueInputBuffer(
+                                inputIndex,
+                                0,
+                                read,
+                                presentationTimeUs,
+                                inputEnded ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                    }
+                }
+                int outputIndex = encoder.dequeueOutputBuffer(info, inputEnded ? AUDIO_DEQUEUE_TIMEOUT_US : 0);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    session.queue.putFormat(AUDIO_TRACK, encoder.getOutputFormat());
+                } else if (outputIndex >= 0) {
+                    boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                        EncodedSampleQueue.Sample sample =
+                                session.queue.copy(AUDIO_TRACK, encoder.getOutputBuffer(outputIndex), info);
+                        if (sample != null) {
+                            session.queue.put(sample);
+                        } else {
+                            droppedAudioCount++;
+                        }
+                    }
+                    encoder.releaseOutputBuffer(outputIndex, false);
+                    if (endOfStream) {
+                        break;
+                    }
+                } else if (inputEnded && System.nanoTime() - session.stopNanos > STOP_TIMEOUT_NANOS) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Audio recording failed", e);
+        } finally {
+            session.queue.putEndOfStream(AUDIO_TRACK);
+            releaseAudio(session);
+        }
+    }
+
+    // A recording being written on the writer thread, one segment (and muxer) at a time. A segment starts
+    // at a video key frame once the formats of the tracks are known, the samples before are left out. Once
+    // a segment has reached the segment size of the recording, the next key frame starts the next one.
+    private class OutputRecording {
+        final RecordingStore.Recording recording;
+        final OnFinishedListener listener;
+        @Nullable File file;
+        @Nullable MediaMuxer muxer;
+        final int[] muxerTracks = {-1, -1};
+        long segmentBytes = 0;
+        boolean failed = false;
+
+        OutputRecording(RecordingStore.Recording recording, OnFinishedListener listener) {
+            this.recording = recording;
+            this.listener = listener;
+        }
+
+        // formatsReady: the formats of every track that will have samples are known.
+        void write(EncodedSampleQueue.Sample sample, MediaFormat[] formats, boolean formatsReady) {
+            if (failed) {
+                return;
+            }
+            boolean keyFrame = sample.track == VIDEO_TRACK && sample.isKeyFrame();
+            if (muxer != null && keyFrame && segmentBytes >= recording.getSegmentBytes()) {
+                finishSegment();
+            }
+            if (muxer == null) {
+                if (!formatsReady || !keyFrame || !startSegment(formats)) {
+                    return;
+                }
+            }
+            if (muxerTracks[sample.track] < 0) {
+                return;
+            }
+            try {
+                long startNanos = System.nanoTime();
+                muxer.writeSampleData(muxerTracks[sample.track], sample.data, sample.info);
+                recording.onWrite(sample.info.size, System.nanoTime() - startNanos);
+                segmentBytes += sample.info.size;
+                writtenBytes += sample.info.size;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not write " + file, e);
+                failed = true;
+                finishSegment();
+            }
+        }
+
+        // Closes the current segment, if the recording goes on the next key frame starts a new one.
+        void finish() {
+            if (muxer != null) {
+                finishSegment();
+            }
+        }
+
+        private boolean startSegment(MediaFormat[] formats) {
+            file = recording.nextSegment();
+            try {
+                muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                for (int track = 0; track < TRACK_COUNT; track++) {
+                    muxerTracks[track] = formats[track] != null ? muxer.addTrack(formats[track]) : -1;
+                }
+                muxer.start();
+                segmentCount++;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Could not create " + file, e);
+                failed = true;
+                if (muxer != null) {
+                    // Released without stop(), the segment is deleted below.
+                    finishSegment();
+                } else {
+                    recording.onSegmentFinished(file, false, 0);
+                    File failedFile = file;
+                    mainHandler.post(() -> listener.onFinished(failedFile, false));
+                }
+                return false;
+            }
+        }
+
+        private void finishSegment() {
+            boolean success = !failed;
+            long startNanos = System.nanoTime();
+            try {
+                if (success) {
+                    muxer.stop();
+                }
+            } catch (IllegalStateException e) {
+                // Thrown when no sample was written.
+                success = false;
+            }
+            muxer.release();
+            long finishNanos = System.nanoTime() - startNanos;
+            if (!success) {
+                file.delete();
+            }
+            recording.onSegmentFinished(file, success, finishNanos);
+            File finishedFile = file;
+            boolean finished = success;
+            mainHandler.post(() -> listener.onFinished(finishedFile, finished));
+            muxer = null;
+            file = null;
+            segmentBytes = 0;
+        }
+    }
+
+    // The writer thread: passes the samples of a session to the open file and the replay buffer, until
+    // every track has ended (or the encoders didn't flush in time after stop()).
+    private void runWriter(Session session) {
+        MediaFormat[] formats = new MediaFormat[TRACK_COUNT];
+        // An encoder error can end a track a second time.
+        boolean[] ended = new boolean[TRACK_COUNT];
+        int endedCount = 0;
+        int trackCount = session.trackCount;
+        OutputRecording output = null;
+        ReplayBuffer replay = null;
+        try {
+            while (endedCount < trackCount) {
+                if (!session.running && System.nanoTime() - session.stopNanos > STOP_TIMEOUT_NANOS) {
+                    Log.w(TAG, "Encoders didn't finish in time, closing the file");
+                    break;
+                }
+                output = takeFileRequest(session, output);
+                if (replayBuffer != replay) {
+                    replay = replayBuffer;
+                    if (replay != null) {
+                        replay.clear();
+                        for (int track = 0; track < TRACK_COUNT; track++) {
+                            if (formats[track] != null) {
+                                replay.setFormat(track, formats[track]);
+                            }
+                        }
+                    }
+                }
+                EncodedSampleQueue.Sample sample = session.queue.take(WRITER_POLL_MILLIS);
+                if (sample == null) {
+                    continue;
+                }
+                if (sample.format != null) {
+                    // A new video encoder (the tier changed), the recording goes on in a new segment.
+                    if (sample.track == VIDEO_TRACK && formats[VIDEO_TRACK] != null && output != null) {
+                        output.finish();
+                    }
+                    formats[sample.track] = sample.format;
+                    if (replay != null) {
+                        replay.setFormat(sample.track, sample.format);
+                    }
+                } else if (sample.isEndOfStream() && sample.info.size == 0) {
+                    if (!ended[sample.track]) {
+                        ended[sample.track] = true;
+                        endedCount++;
+                    }
+                } else {
+                    if (replay != null) {
+                        replay.add(sample);
+                    }
+                    if (output != null) {
+                        // A track that ended without a format (e.g. the microphone failed) isn't waited for.
+                        boolean formatsReady = true;
+                        for (int track = 0; track < trackCount; track++) {
+                            formatsReady &= formats[track] != null || ended[track];
+                        }
+                        output.write(sample, formats, formatsReady);
+                    }
+                }
+                session.queue.recycle(sample);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Writer interrupted", e);
+        } finally {
+            if (output != null) {
+                output.finish();
+            }
+            session.codecHandler.post(
+                    () -> {
+                        releaseEncoders(session);
+                        session.codecThread.quitSafely();
+                    });
+        }
+    }
+
+    // On the writer thread: finishes the current file and opens the requested one, if one was requested.
+    @Nullable
+    private OutputRecording takeFileRequest(Session session, @Nullable OutputRecording current) {
+        RecordingStore.Recording recording;
+        OnFinishedListener listener;
+        synchronized (session) {
+            if (!session.fileRequestPending) {
+                return current;
+            }
+            session.fileRequestPending = false;
+            recording = session.requestedRecording;
+            listener = session.requestedListener;
+            session.requestedRecording = null;
+            session.requestedListener = null;
+        }
+        if (current != null) {
+            current.finish();
+        }
+        return recording != null ? new OutputRecording(recording, listener) : null;
+    }
+
+    private void releaseEncoders(Session session) {
+        if (session.videoEncoder != null) {
+            try {
+                session.videoEncoder.stop();
+            } catch (IllegalStateException e) {
+                // Not started, or already stopped by an error.
+            }
+            session.videoEncoder.release();
+            session.videoEncoder = null;
+        }
+        releaseAudio(session);
+    }
+
+    private static void releaseAudio(Session session) {
+        synchronized (session) {
+            if (session.audioEncoder != null) {
+                try {
+                    session.audioEncoder.stop();
+                } catch (IllegalStateException e) {
+                    // Not started.
+                }
+                session.audioEncoder.release();
+                session.audioEncoder = null;
+            }
+            if (session.audioRecord != null) {
+                session.audioRecord.release();
+                session.audioRecord = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+
+/**
+ * The transforms of all exhibits packed into one float array: per exhibit a position, a scale and a
+ * rotation quaternion (x, y, z, w), STRIDE floats apart. The math works directly on the array, so
+ * transforming the whole gallery (e.g. normalizing every rotation after loading the catalog) is a loop
+ * over primitives instead of a Quaternion per exhibit. Sceneform objects are only built once per exhibit,
+ * by ExhibitTransform.
+ */
+public class TransformStore {
+
+    // Offsets of the components of one transform.
+    public static final int POSITION = 0;
+    public static final int SCALE = 3;
+    public static final int ROTATION = 6;
+    public static final int STRIDE = 10;
+
+    private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180.0);
+
+    private final float[] data;
+    private final int size;
+
+    // A store of size identity transforms.
+    public TransformStore(int size) {
+        this.size = size;
+        this.data = new float[size * STRIDE];
+        for (int i = 0; i < size; i++) {
+            setScale(i, 1, 1, 1);
+            setRotation(i, 0, 0, 0, 1);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The packed transforms, see STRIDE. Must not be modified.
+    public float[] getData() {
+        return data;
+    }
+
+    public void setPosition(int index, float x, float y, float z) {
+        int offset = index * STRIDE + POSITION;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+    }
+
+    public void setScale(int index, float x, float y, float z) {
+        int offset = index * STRIDE + SCALE;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+    }
+
+    public void setRotation(int index, float x, float y, float z, float w) {
+        int offset = index * STRIDE + ROTATION;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+        data[offset + 3] = w;
+    }
+
+    // Sets the rotation to degrees around the axis, which doesn't have to be normalized: unlike
+    // Quaternion.axisAngle, the axis is normalized first. A zero axis is no rotation.
+    public void setAxisAngle(int index, float axisX, float axisY, float axisZ, float degrees) {
+        float length = (float) Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (length == 0) {
+            setRotation(index, 0, 0, 0, 1);
+            return;
+        }
+        float halfAngle = 0.5f * degrees * DEGREES_TO_RADIANS;
+        float s = (float) Math.sin(halfAngle) / length;
+        setRotation(index, axisX * s, axisY * s, axisZ * s, (float) Math.cos(halfAngle));
+    }
+
+    // Normalizes every rotation, rotations of (almost) zero length become the identity.
+    public void normalizeRotations() {
+        for (int offset = ROTATION; offset < data.length; offset += STRIDE) {
+            float x = data[offset];
+            float y = data[offset + 1];
+            float z = data[offset + 2];
+            float w = data[offset + 3];
+            float lengthSquared = x * x + y * y + z * z + w * w;
+            if (lengthSquared < 1e-12f) {
+                data[offset] = 0;
+                data[offset + 1] = 0;
+                data[offset + 2] = 0;
+                data[offset + 3] = 1;
+                continue;
+            }
+            float inverseLength = (float) (1.0 / Math.sqrt(lengthSquared));
+            data[offset] = x * inverseLength;
+            data[offset + 1] = y * inverseLength;
+            data[offset + 2] = z * inverseLength;
+            data[offset + 3] = w * inverseLength;
+        }
+    }
+
+    public Vector3 toPosition(int index) {
+        int offset = index * STRIDE + POSITION;
+        return new Vector3(data[offset], data[offset + 1], data[offset + 2]);
+    }
+
+    public Vector3 toScale(int index) {
+        int offset = index * STRIDE + SCALE;
+        return new Vector3(data[offset], data[offset + 1], data[offset + 2]);
+    }
+
+    public Quaternion toRotation(int index) {
+        int offset = index * STRIDE + ROTATION;
+        return new Quaternion(data[offset], data[offset + 1], data[offset + 2], data[offset + 3]);
+    }
+}
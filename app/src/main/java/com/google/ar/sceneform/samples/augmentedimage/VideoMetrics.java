@@ -0,0 +1,79 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.PersistableBundle;
+import java.util.Arrays;
+
+/**
+ * Counts how well the videos play: the videos started at every VideoTier, the frames that reached the
+ * texture, and the frames the decoder played and dropped over the life of every player (from
+ * MediaPlayer.getMetrics, Android 8.0 and later). Printed when the activity is dumped.
+ *
+ * The starts and delivered frames are counted on the UI thread, the decoder frames on the media worker.
+ */
+public class VideoMetrics {
+
+    private static final VideoMetrics THE_INSTANCE = new VideoMetrics();
+
+    private final long[] startsPerTier = new long[VideoTier.values().length];
+    private long preKeyedStartCount = 0;
+    private long deliveredFrameCount = 0;
+    // Totals of the players whose metrics were read.
+    private long measuredPlayerCount = 0;
+    private long decodedFrameCount = 0;
+    private long droppedFrameCount = 0;
+
+    public static VideoMetrics getInstance() {
+        return THE_INSTANCE;
+    }
+
+    public synchronized void onVideoStarted(VideoTier tier, boolean preKeyed) {
+        startsPerTier[tier.ordinal()]++;
+        if (preKeyed) {
+            preKeyedStartCount++;
+        }
+    }
+
+    // Called for every frame of a video that became available on its texture.
+    public synchronized void onFrameDelivered() {
+        deliveredFrameCount++;
+    }
+
+    // Called on the media worker just before a video player is released (see AsyncMediaController).
+    public void onPlayerReleased(MediaPlayer player) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        PersistableBundle metrics = player.getMetrics();
+        if (metrics == null) {
+            return;
+        }
+        int played = metrics.getInt(MediaPlayer.MetricsConstants.FRAMES, -1);
+        int dropped = metrics.getInt(MediaPlayer.MetricsConstants.FRAMES_DROPPED, -1);
+        if (played < 0 || dropped < 0) {
+            return;
+        }
+        synchronized (this) {
+            measuredPlayerCount++;
+            decodedFrameCount += played;
+            droppedFrameCount += dropped;
+        }
+    }
+
+    // Share of the decoded frames the decoder dropped, 0 if no player has been measured.
+    public synchronized float getDropRate() {
+        long total = decodedFrameCount + droppedFrameCount;
+        return total == 0 ? 0 : (float) droppedFrameCount / total;
+    }
+
+    public synchronized String stats() {
+        return "starts=" + Arrays.toString(startsPerTier) + " (" + Arrays.toString(VideoTier.values()) + ")"
+                + " preKeyed=" + preKeyedStartCount
+                + " delivered=" + deliveredFrameCount
+                + " players=" + measuredPlayerCount
+                + " decoded=" + decodedFrameCount
+                + " dropped=" + droppedFrameCount
+                + " dropRate=" + Math.round(getDropRate() * 1000) / 10f + "%";
+    }
+}
@@ -0,0 +1,124 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaPlayer;
+import android.support.annotation.Nullable;
+import com.google.ar.sceneform.rendering.ExternalTexture;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the players and textures of the most recently stopped videos warm, so going back to an exhibit
+ * resumes its video right away instead of paying for a new ExternalTexture and codec setup. Videos that
+ * are returned to the pool are paused, and the least recently used ones are released once there are more
+ * than maxIdleVideos of them. This also bounds the number of video decoders the app holds on to.
+ *
+ * Only used from the UI thread.
+ */
+public class VideoPlayerPool {
+
+    // Two warm videos cover a visitor going back and forth between two paintings.
+    private static final int DEFAULT_MAX_IDLE_VIDEOS = 2;
+
+    private static final VideoPlayerPool THE_INSTANCE = new VideoPlayerPool(DEFAULT_MAX_IDLE_VIDEOS);
+
+    // A video that is playing (checked out by an AugmentedImageNode) or paused in the pool.
+    public static class PooledVideo {
+        public final int resourceId;
+        public final ExternalTexture texture;
+        public final AsyncMediaController controller;
+
+        PooledVideo(Context context, int resourceId) {
+            this.resourceId = resourceId;
+            this.texture = new ExternalTexture();
+            this.controller = new AsyncMediaController(context);
+            controller.setSurface(texture.getSurface());
+            controller.setLooping(true);
+            controller.setOnReleaseListener(VideoMetrics.getInstance()::onPlayerReleased);
+        }
+
+        void release() {
+            controller.setOnReadyListener(null);
+            controller.stop();
+            // Posted after stop(), so the texture is only released once the player no longer renders to it.
+            SurfaceTexture surfaceTexture = texture.getSurfaceTexture();
+            AsyncMediaController.postToWorker(surfaceTexture::release);
+        }
+    }
+
+    // Idle videos keyed by their raw resource, least recently returned first.
+    private final LinkedHashMap<Integer, PooledVideo> idleVideos = new LinkedHashMap<>(8, 0.75f, true);
+    private int maxIdleVideos;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public static VideoPlayerPool getInstance() {
+        return THE_INSTANCE;
+    }
+
+    VideoPlayerPool(int maxIdleVideos) {
+        this.maxIdleVideos = maxIdleVideos;
+    }
+
+    public void setMaxIdleVideos(int maxIdleVideos) {
+        this.maxIdleVideos = maxIdleVideos;
+        trimToSize(maxIdleVideos);
+    }
+
+    // Returns a playing video for the raw resource. If the pool has one it is resumed where it was paused,
+    // otherwise a new one is started (with preparedPlayer, if the video was prefetched). onReadyListener is
+    // called once the video is playing.
+    public PooledVideo checkout(
+            Context context,
+            int resourceId,
+            @Nullable MediaPlayer preparedPlayer,
+            AsyncMediaController.OnReadyListener onReadyListener) {
+        PooledVideo video = idleVideos.remove(resourceId);
+        if (video != null) {
+            hitCount++;
+            AsyncMediaController.releaseAsync(preparedPlayer);
+            video.controller.setOnReadyListener(onReadyListener);
+            video.controller.resume();
+            return video;
+        }
+        missCount++;
+        video = new PooledVideo(context, resourceId);
+        video.controller.setOnReadyListener(onReadyListener);
+        video.controller.play(resourceId, preparedPlayer);
+        return video;
+    }
+
+    // Pauses the video and keeps it for the next checkout of the same resource.
+    public void giveBack(PooledVideo video) {
+        video.controller.setOnReadyListener(null);
+        video.texture.getSurfaceTexture().setOnFrameAvailableListener(null);
+        video.controller.pause();
+
+        PooledVideo replaced = idleVideos.put(video.resourceId, video);
+        if (replaced != null && replaced != video) {
+            replaced.release();
+        }
+        trimToSize(maxIdleVideos);
+    }
+
+    // Releases all idle videos, e.g. when the activity is destroyed or memory is low.
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public String stats() {
+        return "idle=" + idleVideos.size() + "/" + maxIdleVideos + " hits=" + hitCount + " misses=" + missCount;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Integer, PooledVideo>> iterator = idleVideos.entrySet().iterator();
+        while (iterator.hasNext() && idleVideos.size() > maxSize) {
+            PooledVideo evicted = iterator.next().getValue();
+            iterator.remove();
+            evicted.release();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+/**
+ * The resolutions a video exhibit can be encoded at, lowest first. A tier's variant of a video is the raw
+ * resource named like the video plus the tier's suffix (skater_480p, skater_720p), the full resolution
+ * video has no suffix. VideoTierSelector picks the tier that is played.
+ */
+public enum VideoTier {
+    LOW("_480p", 854, 480),
+    MEDIUM("_720p", 1280, 720),
+    FULL("", 1920, 1080);
+
+    // Appended to the name of the video to get the raw resource of this tier.
+    public final String suffix;
+    // The largest frame size of the tier, used to check that the device can decode it.
+    public final int width;
+    public final int height;
+
+    VideoTier(String suffix, int width, int height) {
+        this.suffix = suffix;
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,84 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.util.Log;
+import com.google.ar.sceneform.FrameTime;
+
+/**
+ * Picks the VideoTier video exhibits are played at. The device class sets the highest tier: low RAM
+ * devices get the lowest, the others the highest their AVC decoder can play at 30 fps. Below that the
+ * tier follows the frame time (see FrameTimeGovernor). The tier only applies to videos started
+ * afterwards, a playing video keeps its resolution.
+ *
+ * Only used from the UI thread.
+ */
+public class VideoTierSelector {
+
+    private static final String TAG = "VideoTierSelector";
+
+    // A tier is kept at least this long before going down, going up needs this long of fast frames.
+    private static final long DOWN_SWITCH_NANOS = 5_000_000_000L;
+    private static final long UP_SWITCH_NANOS = 30_000_000_000L;
+    private static final int DECODER_FRAME_RATE = 30;
+
+    private static final VideoTierSelector THE_INSTANCE = new VideoTierSelector();
+
+    private final FrameTimeGovernor<VideoTier> governor =
+            new FrameTimeGovernor<>("Video", VideoTier.values(), VideoTier.FULL, DOWN_SWITCH_NANOS, UP_SWITCH_NANOS);
+
+    public static VideoTierSelector getInstance() {
+        return THE_INSTANCE;
+    }
+
+    // Sets the highest tier from the device class. Called once from the activity's onCreate.
+    public void init(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        VideoTier maxTier = VideoTier.LOW;
+        if (activityManager == null || !activityManager.isLowRamDevice()) {
+            for (VideoTier candidate : VideoTier.values()) {
+                if (canDecode(candidate)) {
+                    maxTier = candidate;
+                }
+            }
+        }
+        governor.reset(maxTier, maxTier);
+        Log.d(TAG, "Highest video tier " + maxTier);
+    }
+
+    // Called every frame from onUpdateFrame.
+    public void onFrame(FrameTime frameTime) {
+        governor.onFrame(frameTime);
+    }
+
+    // The tier to start videos at.
+    public VideoTier getTier() {
+        return governor.getTier();
+    }
+
+    public String stats() {
+        return governor.stats();
+    }
+
+    private static boolean canDecode(VideoTier tier) {
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(MediaFormat.MIMETYPE_VIDEO_AVC)) {
+                    continue;
+                }
+                MediaCodecInfo.VideoCapabilities capabilities = info.getCapabilitiesForType(type).getVideoCapabilities();
+                if (capabilities != null
+                        && capabilities.areSizeAndRateSupported(tier.width, tier.height, DECODER_FRAME_RATE)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import org.junit.Test;
+
+/**
+ * Times building the rotations of a gallery with TransformStore against building a Quaternion per exhibit
+ * with Quaternion.axisAngle, the way Vector4 was placed. Prints the time per exhibit of both, e.g. with
+ * ./gradlew testDebugUnitTest --tests '*TransformStoreBenchmarkTest' -i. Only checks that both give the
+ * same rotations, the times depend on the machine.
+ */
+public class TransformStoreBenchmarkTest {
+
+    private static final int EXHIBITS = 1000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 1000;
+
+    // Axis and angle of every exhibit, like the rotation field of exhibits.txt.
+    private final float[] axisAngles = new float[EXHIBITS * 4];
+    // Keeps the JIT from dropping the work.
+    private float sink = 0;
+
+    public TransformStoreBenchmarkTest() {
+        for (int i = 0; i < EXHIBITS; i++) {
+            axisAngles[i * 4] = i % 3;
+            axisAngles[i * 4 + 1] = (i + 1) % 5;
+            axisAngles[i * 4 + 2] = -(i % 7);
+            axisAngles[i * 4 + 3] = i * 7 % 360;
+        }
+    }
+
+    @Test
+    public void transformStoreAgainstPerCallQuaternions() {
+        TransformStore store = new TransformStore(EXHIBITS);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            buildWithStore(store);
+            buildWithQuaternions();
+        }
+
+        long storeNanos = 0;
+        long quaternionNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            buildWithStore(store);
+            storeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            buildWithQuaternions();
+            quaternionNanos += System.nanoTime() - start;
+        }
+        System.out.println(
+                String.format(
+                        "%d exhibits: TransformStore %.1f ns/exhibit, Quaternion.axisAngle %.1f ns/exhibit (sink %f)",
+                        EXHIBITS,
+                        (double) storeNanos / ROUNDS / EXHIBITS,
+                        (double) quaternionNanos / ROUNDS / EXHIBITS,
+                        sink));
+
+        for (int i = 0; i < EXHIBITS; i += 97) {
+            Quaternion expected = quaternion(i);
+            Quaternion actual = store.toRotation(i);
+            // q and -q are the same rotation.
+            float dot = expected.x * actual.x + expected.y * actual.y + expected.z * actual.z + expected.w * actual.w;
+            assertEquals(1, Math.abs(dot), 1e-5f);
+        }
+    }
+
+    // What ExhibitCatalog does: every rotation into the store, then one pass to normalize them.
+    private void buildWithStore(TransformStore store) {
+        for (int i = 0; i < EXHIBITS; i++) {
+            store.setAxisAngle(i, axisAngles[i * 4], axisAngles[i * 4 + 1], axisAngles[i * 4 + 2], axisAngles[i * 4 + 3]);
+        }
+        store.normalizeRotations();
+        sink += store.getData()[TransformStore.ROTATION];
+    }
+
+    private void buildWithQuaternions() {
+        for (int i = 0; i < EXHIBITS; i++) {
+            sink += quaternion(i).w;
+        }
+    }
+
+    // Quaternion.axisAngle doesn't normalize the axis, so it is normalized first like setAxisAngle does.
+    private Quaternion quaternion(int i) {
+        Vector3 axis = new Vector3(axisAngles[i * 4], axisAngles[i * 4 + 1], axisAngles[i * 4 + 2]).normalized();
+        return Quaternion.axisAngle(axis, axisAngles[i * 4 + 3]);
+    }
+}
@@ -0,0 +1,108 @@
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ar.sceneform.math.Quaternion;
+import com.google.ar.sceneform.math.Vector3;
+import org.junit.Test;
+
+/** Checks the packed quaternion math of TransformStore against Sceneform's Quaternion. */
+public class TransformStoreTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    // Axes and angles like the ones in exhibits.txt, plus awkward ones.
+    private static final float[][] AXIS_ANGLES = {
+        {0, 1, 0, 90},
+        {1, 0, 0, -90},
+        {0, 0, 1, 180},
+        {1, 1, 0, 45},
+        {0.3f, -2.5f, 7, 123},
+        {-1, -1, -1, 360},
+        {0, 1, 0, 0},
+    };
+
+    @Test
+    public void newStoreHoldsIdentityTransforms() {
+        TransformStore store = new TransformStore(3);
+        for (int i = 0; i < store.size(); i++) {
+            assertVector(0, 0, 0, store.toPosition(i));
+            assertVector(1, 1, 1, store.toScale(i));
+            assertRotation(0, 0, 0, 1, store, i);
+        }
+    }
+
+    @Test
+    public void setAxisAngleMatchesQuaternionAxisAngle() {
+        TransformStore store = new TransformStore(AXIS_ANGLES.length);
+        for (int i = 0; i < AXIS_ANGLES.length; i++) {
+            float[] axisAngle = AXIS_ANGLES[i];
+            store.setAxisAngle(i, axisAngle[0], axisAngle[1], axisAngle[2], axisAngle[3]);
+            // Quaternion.axisAngle normalizes the quaternion but not the axis, so it is only the rotation by
+            // the angle for a unit axis.
+            Vector3 axis = new Vector3(axisAngle[0], axisAngle[1], axisAngle[2]).normalized();
+            Quaternion expected = Quaternion.axisAngle(axis, axisAngle[3]);
+            assertSameRotation(expected, store.toRotation(i));
+            assertEquals(1, length(store.toRotation(i)), EPSILON);
+        }
+    }
+
+    @Test
+    public void setAxisAngleWithZeroAxisIsIdentity() {
+        TransformStore store = new TransformStore(1);
+        store.setAxisAngle(0, 0, 0, 0, 90);
+        assertRotation(0, 0, 0, 1, store, 0);
+        assertSameRotation(Quaternion.axisAngle(new Vector3(0, 0, 0), 90), store.toRotation(0));
+    }
+
+    @Test
+    public void normalizeRotationsMatchesQuaternionNormalized() {
+        TransformStore store = new TransformStore(3);
+        store.setRotation(0, 1, 2, 3, 4);
+        store.setRotation(1, 0, -0.5f, 0, 0.5f);
+        store.setRotation(2, 0, 0, 0, 1);
+        store.normalizeRotations();
+        assertComponents(new Quaternion(1, 2, 3, 4).normalized(), store.getData(), TransformStore.ROTATION);
+        assertComponents(
+                new Quaternion(0, -0.5f, 0, 0.5f).normalized(),
+                store.getData(),
+                TransformStore.STRIDE + TransformStore.ROTATION);
+        assertRotation(0, 0, 0, 1, store, 2);
+    }
+
+    @Test
+    public void normalizeRotationsTurnsZeroRotationsIntoIdentity() {
+        TransformStore store = new TransformStore(1);
+        store.setRotation(0, 0, 0, 0, 0);
+        store.normalizeRotations();
+        assertRotation(0, 0, 0, 1, store, 0);
+    }
+
+    private static float length(Quaternion q) {
+        return (float) Math.sqrt(q.x * q.x + q.y * q.y + q.z * q.z + q.w * q.w);
+    }
+
+    private static void assertVector(float x, float y, float z, Vector3 actual) {
+        assertEquals(x, actual.x, EPSILON);
+        assertEquals(y, actual.y, EPSILON);
+        assertEquals(z, actual.z, EPSILON);
+    }
+
+    private static void assertRotation(float x, float y, float z, float w, TransformStore store, int index) {
+        assertComponents(new Quaternion(x, y, z, w), store.getData(), index * TransformStore.STRIDE + TransformStore.ROTATION);
+    }
+
+    private static void assertComponents(Quaternion expected, float[] actual, int offset) {
+        assertEquals(expected.x, actual[offset], EPSILON);
+        assertEquals(expected.y, actual[offset + 1], EPSILON);
+        assertEquals(expected.z, actual[offset + 2], EPSILON);
+        assertEquals(expected.w, actual[offset + 3], EPSILON);
+    }
+
+    // q and -q are the same rotation: axisAngle may pick either for angles past 180 degrees.
+    private static void assertSameRotation(Quaternion expected, Quaternion actual) {
+        float dot = expected.x * actual.x + expected.y * actual.y + expected.z * actual.z + expected.w * actual.w;
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(Math.abs(dot) - 1) < EPSILON);
+    }
+}
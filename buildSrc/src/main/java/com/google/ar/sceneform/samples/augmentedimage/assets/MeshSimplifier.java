@@ -0,0 +1,402 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the triangle count of an ObjMesh by collapsing edges, cheapest first, with the quadric error
+ * metric (Garland and Heckbert): every position accumulates the planes of the triangles around it, and
+ * moving a position costs the sum of its squared distances to those planes.
+ *
+ * Only half edge collapses are done (a position is merged into one of its neighbours), so no new positions
+ * or texture coordinates are made up. Positions on the border of the mesh, on texture seams and between
+ * materials are never moved, so the outline, the texturing and the material regions of the model stay
+ * where they are. Flat shaded meshes get new face normals afterwards; smooth meshes keep the normals of
+ * the positions that survive.
+ */
+public class MeshSimplifier {
+
+    // A collapse that turns a triangle further than this (cosine of the angle between its normals before
+    // and after) is rejected, it would fold the surface over.
+    private static final double MIN_NORMAL_COSINE = 0.2;
+
+    private final ObjMesh mesh;
+    private final boolean flatShaded;
+    // Per position: the 10 coefficients of its symmetric quadric.
+    private final double[] quadrics;
+    // Positions that must not move.
+    private final boolean[] locked;
+    // Live triangles around every position.
+    private final IntList[] positionTriangles;
+    private final boolean[] removedTriangles;
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+    private int liveTriangleCount;
+
+    // Reused by tryCollapse.
+    private final IntList sharedTriangles = new IntList();
+    private final IntList neighbours = new IntList();
+    private final float[] normalBefore = new float[3];
+    private final float[] normalAfter = new float[3];
+
+    // Returns a copy of the mesh with at most targetTriangles triangles, or as few as the collapses that
+    // keep the mesh intact get to. The mesh should be deduplicated first, collapses only follow shared
+    // positions.
+    public static ObjMesh simplify(ObjMesh source, int targetTriangles) {
+        ObjMesh mesh = source.copy();
+        if (mesh.triangleCount > targetTriangles) {
+            new MeshSimplifier(mesh).collapseTo(targetTriangles);
+        }
+        return mesh;
+    }
+
+    private MeshSimplifier(ObjMesh mesh) {
+        this.mesh = mesh;
+        this.flatShaded = mesh.isFlatShaded();
+        int positionCount = mesh.positionCount;
+        quadrics = new double[positionCount * 10];
+        locked = new boolean[positionCount];
+        positionTriangles = new IntList[positionCount];
+        for (int i = 0; i < positionCount; i++) {
+            positionTriangles[i] = new IntList();
+        }
+        removedTriangles = new boolean[mesh.triangleCount];
+        liveTriangleCount = mesh.triangleCount;
+
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            addPlaneQuadric(t);
+            for (int c = t * 3; c < t * 3 + 3; c++) {
+                positionTriangles[mesh.cornerPositions[c]].add(t);
+            }
+        }
+        lockPositions();
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            for (int i = 0; i < 3; i++) {
+                int a = mesh.cornerPositions[t * 3 + i];
+                int b = mesh.cornerPositions[t * 3 + (i + 1) % 3];
+                // Every interior edge is in two triangles, so it is queued twice in each direction. The
+                // duplicates are skipped once the first one is done.
+                addCandidate(a, b);
+                addCandidate(b, a);
+            }
+        }
+    }
+
+    private void collapseTo(int targetTriangles) {
+        while (liveTriangleCount > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            if (!hasEdge(collapse.from, collapse.to)) {
+                continue;
+            }
+            // Quadrics only ever grow, so a queued cost can only be too low. Requeue it with its real cost.
+            double cost = cost(collapse.from, collapse.to);
+            if (cost > collapse.cost) {
+                collapse.cost = cost;
+                queue.add(collapse);
+                continue;
+            }
+            tryCollapse(collapse.from, collapse.to);
+        }
+
+        mesh.retainTriangles(invert(removedTriangles));
+        mesh.compact();
+        if (flatShaded) {
+            mesh.recomputeFlatNormals();
+        }
+    }
+
+    // Merges position u into its neighbour v, unless that breaks the mesh. Returns whether it did.
+    private boolean tryCollapse(int u, int v) {
+        IntList trianglesOfU = positionTriangles[u];
+        sharedTriangles.clear();
+        for (int i = 0; i < trianglesOfU.size; i++) {
+            int t = trianglesOfU.values[i];
+            if (cornerOf(t, v) >= 0) {
+                sharedTriangles.add(t);
+            }
+        }
+        // u is not on a border, so an edge to it is in exactly two triangles.
+        if (sharedTriangles.size != 2) {
+            return false;
+        }
+        // The only neighbours u and v have in common must be the far corners of those two triangles,
+        // otherwise the collapse would pinch the surface.
+        collectNeighbours(u);
+        int common = 0;
+        for (int i = 0; i < neighbours.size; i++) {
+            int w = neighbours.values[i];
+            if (w != v && hasEdge(v, w)) {
+                common++;
+            }
+        }
+        if (common != 2) {
+            return false;
+        }
+
+        // The corners of u take over the attributes v has in the triangles that disappear.
+        int cornerA = cornerOf(sharedTriangles.values[0], v);
+        int cornerB = cornerOf(sharedTriangles.values[1], v);
+        int texCoord = mesh.cornerTexCoords[cornerA];
+        int normal = mesh.cornerNormals[cornerA];
+        if (texCoord != mesh.cornerTexCoords[cornerB] || (!flatShaded && normal != mesh.cornerNormals[cornerB])) {
+            return false;
+        }
+
+        for (int i = 0; i < trianglesOfU.size; i++) {
+            int t = trianglesOfU.values[i];
+            if (!sharedTriangles.contains(t) && flips(t, u, v)) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < sharedTriangles.size; i++) {
+            int t = sharedTriangles.values[i];
+            removedTriangles[t] = true;
+            liveTriangleCount--;
+            for (int c = t * 3; c < t * 3 + 3; c++) {
+                int p = mesh.cornerPositions[c];
+                if (p != u) {
+                    positionTriangles[p].remove(t);
+                }
+            }
+        }
+        for (int i = 0; i < trianglesOfU.size; i++) {
+            int t = trianglesOfU.values[i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int corner = cornerOf(t, u);
+            mesh.cornerPositions[corner] = v;
+            mesh.cornerTexCoords[corner] = texCoord;
+            if (!flatShaded) {
+                mesh.cornerNormals[corner] = normal;
+            }
+            positionTriangles[v].add(t);
+        }
+        trianglesOfU.clear();
+        for (int i = 0; i < 10; i++) {
+            quadrics[v * 10 + i] += quadrics[u * 10 + i];
+        }
+
+        // The edges around v cost more now, and v has new neighbours.
+        collectNeighbours(v);
+        for (int i = 0; i < neighbours.size; i++) {
+            addCandidate(v, neighbours.values[i]);
+            addCandidate(neighbours.values[i], v);
+        }
+        return true;
+    }
+
+    // True if moving u to v turns triangle t over (or flattens it).
+    private boolean flips(int t, int u, int v) {
+        int a = mesh.cornerPositions[t * 3];
+        int b = mesh.cornerPositions[t * 3 + 1];
+        int c = mesh.cornerPositions[t * 3 + 2];
+        mesh.faceNormal(a, b, c, normalBefore, 0);
+        mesh.faceNormal(a == u ? v : a, b == u ? v : b, c == u ? v : c, normalAfter, 0);
+        double cosine = normalBefore[0] * normalAfter[0] + normalBefore[1] * normalAfter[1] + normalBefore[2] * normalAfter[2];
+        // Zero length normals (degenerate triangles) make the cosine 0.
+        return cosine < MIN_NORMAL_COSINE;
+    }
+
+    // The error of moving u to v: the combined quadric of both, evaluated at v.
+    private double cost(int u, int v) {
+        double x = mesh.positions[v * 3];
+        double y = mesh.positions[v * 3 + 1];
+        double z = mesh.positions[v * 3 + 2];
+        int qu = u * 10;
+        int qv = v * 10;
+        double a2 = quadrics[qu] + quadrics[qv];
+        double ab = quadrics[qu + 1] + quadrics[qv + 1];
+        double ac = quadrics[qu + 2] + quadrics[qv + 2];
+        double ad = quadrics[qu + 3] + quadrics[qv + 3];
+        double b2 = quadrics[qu + 4] + quadrics[qv + 4];
+        double bc = quadrics[qu + 5] + quadrics[qv + 5];
+        double bd = quadrics[qu + 6] + quadrics[qv + 6];
+        double c2 = quadrics[qu + 7] + quadrics[qv + 7];
+        double cd = quadrics[qu + 8] + quadrics[qv + 8];
+        double d2 = quadrics[qu + 9] + quadrics[qv + 9];
+        double error =
+                a2 * x * x + 2 * ab * x * y + 2 * ac * x * z + 2 * ad * x
+                        + b2 * y * y + 2 * bc * y * z + 2 * bd * y
+                        + c2 * z * z + 2 * cd * z
+                        + d2;
+        // Rounding can make it slightly negative.
+        return Math.max(error, 0);
+    }
+
+    // Adds the plane of triangle t, weighted by its area, to the quadrics of its corners.
+    private void addPlaneQuadric(int t) {
+        int a = mesh.cornerPositions[t * 3];
+        int b = mesh.cornerPositions[t * 3 + 1];
+        int c = mesh.cornerPositions[t * 3 + 2];
+        double ux = mesh.positions[b * 3] - mesh.positions[a * 3];
+        double uy = mesh.positions[b * 3 + 1] - mesh.positions[a * 3 + 1];
+        double uz = mesh.positions[b * 3 + 2] - mesh.positions[a * 3 + 2];
+        double vx = mesh.positions[c * 3] - mesh.positions[a * 3];
+        double vy = mesh.positions[c * 3 + 1] - mesh.positions[a * 3 + 1];
+        double vz = mesh.positions[c * 3 + 2] - mesh.positions[a * 3 + 2];
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) {
+            return;
+        }
+        double area = 0.5 * length;
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        double d = -(nx * mesh.positions[a * 3] + ny * mesh.positions[a * 3 + 1] + nz * mesh.positions[a * 3 + 2]);
+        double[] plane = {
+            nx * nx, nx * ny, nx * nz, nx * d, ny * ny, ny * nz, ny * d, nz * nz, nz * d, d * d
+        };
+        for (int p : new int[] {a, b, c}) {
+            for (int i = 0; i < 10; i++) {
+                quadrics[p * 10 + i] += area * plane[i];
+            }
+        }
+    }
+
+    // Locks the positions on borders and non-manifold edges, on texture (and, for smooth meshes, normal)
+    // seams and between materials.
+    private void lockPositions() {
+        Map<Long, Integer> edgeTriangleCounts = new HashMap<>();
+        long positionCount = mesh.positionCount;
+        for (int t = 0; t < mesh.triangleCount; t++) {
+            for (int i = 0; i < 3; i++) {
+                int a = mesh.cornerPositions[t * 3 + i];
+                int b = mesh.cornerPositions[t * 3 + (i + 1) % 3];
+                long key = Math.min(a, b) * positionCount + Math.max(a, b);
+                edgeTriangleCounts.merge(key, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Long, Integer> edge : edgeTriangleCounts.entrySet()) {
+            if (edge.getValue() != 2) {
+                locked[(int) (edge.getKey() / positionCount)] = true;
+                locked[(int) (edge.getKey() % positionCount)] = true;
+            }
+        }
+
+        int[] texCoords = new int[mesh.positionCount];
+        int[] normals = new int[mesh.positionCount];
+        int[] materials = new int[mesh.positionCount];
+        Arrays.fill(materials, -1);
+        for (int c = 0; c < mesh.triangleCount * 3; c++) {
+            int p = mesh.cornerPositions[c];
+            int material = mesh.triangleMaterials[c / 3];
+            if (materials[p] < 0) {
+                texCoords[p] = mesh.cornerTexCoords[c];
+                normals[p] = mesh.cornerNormals[c];
+                materials[p] = material;
+            } else if (texCoords[p] != mesh.cornerTexCoords[c]
+                    || (!flatShaded && normals[p] != mesh.cornerNormals[c])
+                    || materials[p] != material) {
+                locked[p] = true;
+            }
+        }
+    }
+
+    private void addCandidate(int from, int to) {
+        if (!locked[from]) {
+            queue.add(new Collapse(from, to, cost(from, to)));
+        }
+    }
+
+    // The index of the corner of triangle t at position p, or -1.
+    private int cornerOf(int t, int p) {
+        for (int c = t * 3; c < t * 3 + 3; c++) {
+            if (mesh.cornerPositions[c] == p) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private boolean hasEdge(int a, int b) {
+        IntList triangles = positionTriangles[a];
+        for (int i = 0; i < triangles.size; i++) {
+            if (cornerOf(triangles.values[i], b) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Fills neighbours with the positions that share a triangle with p.
+    private void collectNeighbours(int p) {
+        neighbours.clear();
+        IntList triangles = positionTriangles[p];
+        for (int i = 0; i < triangles.size; i++) {
+            int t = triangles.values[i];
+            for (int c = t * 3; c < t * 3 + 3; c++) {
+                int q = mesh.cornerPositions[c];
+                if (q != p && !neighbours.contains(q)) {
+                    neighbours.add(q);
+                }
+            }
+        }
+    }
+
+    private static boolean[] invert(boolean[] values) {
+        boolean[] inverted = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            inverted[i] = !values[i];
+        }
+        return inverted;
+    }
+
+    // Merging position from into position to, at the cost it had when it was queued.
+    private static class Collapse implements Comparable<Collapse> {
+        final int from;
+        final int to;
+        double cost;
+
+        Collapse(int from, int to, double cost) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    // A growable int array, the triangle lists are short and change all the time.
+    private static class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The materials of a Wavefront .mtl file. Each material is kept as its property lines, so it can be
+ * written back unchanged, and compared with the other materials after normalizing the numbers (exporters
+ * write 0.8 and 0.800000 for the same color).
+ */
+public class MtlLibrary {
+
+    // Property lines of every material, in the order of the file.
+    private final Map<String, List<String>> materials = new LinkedHashMap<>();
+
+    public static MtlLibrary read(File file) throws IOException {
+        MtlLibrary library = new MtlLibrary();
+        List<String> current = null;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("newmtl")) {
+                    current = new ArrayList<>();
+                    library.materials.put(line.substring("newmtl".length()).trim(), current);
+                } else if (current != null) {
+                    current.add(line);
+                }
+            }
+        }
+        return library;
+    }
+
+    public boolean contains(String material) {
+        return materials.containsKey(material);
+    }
+
+    // The properties of the material with the numbers normalized and the lines sorted, equal for materials
+    // that look the same. Null if the library doesn't have the material.
+    public String signature(String material) {
+        List<String> lines = materials.get(material);
+        if (lines == null) {
+            return null;
+        }
+        List<String> normalized = new ArrayList<>();
+        for (String line : lines) {
+            StringBuilder builder = new StringBuilder();
+            for (String part : line.split("\\s+")) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(normalizeNumber(part));
+            }
+            normalized.add(builder.toString());
+        }
+        normalized.sort(null);
+        return String.join("\n", normalized);
+    }
+
+    // Writes the materials, in the order of the file. Relative texture paths are prefixed with
+    // texturePrefix, so the library can be written to another directory than the textures.
+    public void write(File file, Collection<String> names, String texturePrefix) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.ISO_8859_1))) {
+            writer.println("# Generated by the optimizeModels task, do not edit.");
+            for (Map.Entry<String, List<String>> material : materials.entrySet()) {
+                if (!names.contains(material.getKey())) {
+                    continue;
+                }
+                writer.println();
+                writer.println("newmtl " + material.getKey());
+                for (String line : material.getValue()) {
+                    writer.println(isTextureMap(line) ? relocateTexture(line, texturePrefix) : line);
+                }
+            }
+        }
+    }
+
+    private static boolean isTextureMap(String line) {
+        String keyword = line.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+        return keyword.startsWith("map_") || keyword.equals("bump") || keyword.equals("disp") || keyword.equals("decal");
+    }
+
+    // Prefixes the texture file (the rest of the line after the keyword, it may contain spaces) unless it
+    // is absolute. Options before the file name (-s, -o, ...) are not used by the exports and not handled.
+    private static String relocateTexture(String line, String texturePrefix) {
+        String[] parts = line.split("\\s+", 2);
+        if (parts.length < 2) {
+            return line;
+        }
+        String path = parts[1];
+        if (path.startsWith("/") || path.startsWith("\\") || path.matches("^[A-Za-z]:.*")) {
+            return line;
+        }
+        return parts[0] + " " + texturePrefix + path;
+    }
+
+    private static String normalizeNumber(String part) {
+        try {
+            return Float.toString(Float.parseFloat(part));
+        } catch (NumberFormatException e) {
+            return part;
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A triangulated Wavefront OBJ mesh, as exported for the models in sampledata/models. Polygons are split
+ * into triangles when the file is read, groups and smoothing groups are dropped (Sceneform ignores them),
+ * and the triangles are kept with the material they use.
+ *
+ * Every triangle corner refers to a position, and optionally a texture coordinate and a normal (-1 if
+ * the file has none). Used by the optimizeModels task in app/build.gradle, see MeshSimplifier.
+ */
+public class ObjMesh {
+
+    // Material of triangles that come before any usemtl.
+    public static final String NO_MATERIAL = "";
+    // Some exports smooth a few small parts of an otherwise flat shaded model, those parts end up flat.
+    private static final float FLAT_SHADED_RATIO = 0.9f;
+
+    // Name of the .mtl file, null if the OBJ has none.
+    public String materialLibrary;
+
+    float[] positions = new float[0];
+    int positionCount;
+    float[] texCoords = new float[0];
+    int texCoordCount;
+    float[] normals = new float[0];
+    int normalCount;
+
+    // Per triangle corner (3 per triangle).
+    int[] cornerPositions = new int[0];
+    int[] cornerTexCoords = new int[0];
+    int[] cornerNormals = new int[0];
+    // Per triangle, an index into materials.
+    int[] triangleMaterials = new int[0];
+    int triangleCount;
+    final List<String> materials = new ArrayList<>();
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public int getMaterialCount() {
+        return materials.size();
+    }
+
+    // The materials used by at least one triangle.
+    public List<String> getUsedMaterials() {
+        boolean[] used = new boolean[materials.size()];
+        for (int i = 0; i < triangleCount; i++) {
+            used[triangleMaterials[i]] = true;
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                names.add(materials.get(i));
+            }
+        }
+        return names;
+    }
+
+    // True if the three corners of (nearly) every triangle share one normal, as in the flat shaded exports.
+    // The normals of such a mesh can be recomputed from its faces after it was simplified.
+    public boolean isFlatShaded() {
+        if (normalCount == 0 || triangleCount == 0) {
+            return false;
+        }
+        int flatTriangles = 0;
+        for (int i = 0; i < triangleCount; i++) {
+            int n = cornerNormals[i * 3];
+            if (n >= 0 && cornerNormals[i * 3 + 1] == n && cornerNormals[i * 3 + 2] == n) {
+                flatTriangles++;
+            }
+        }
+        return flatTriangles >= FLAT_SHADED_RATIO * triangleCount;
+    }
+
+    public static ObjMesh read(File file) throws IOException {
+        ObjMesh mesh = new ObjMesh();
+        Map<String, Integer> materialIndices = new HashMap<>();
+        int currentMaterial = mesh.materialIndex(NO_MATERIAL, materialIndices);
+        int[] polygon = new int[3 * 16];
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                try {
+                    switch (parts[0]) {
+                        case "v":
+                            mesh.positions = ensure(mesh.positions, mesh.positionCount * 3 + 3);
+                            readFloats(parts, mesh.positions, mesh.positionCount * 3, 3);
+                            mesh.positionCount++;
+                            break;
+                        case "vt":
+                            mesh.texCoords = ensure(mesh.texCoords, mesh.texCoordCount * 2 + 2);
+                            readFloats(parts, mesh.texCoords, mesh.texCoordCount * 2, 2);
+                            mesh.texCoordCount++;
+                            break;
+                        case "vn":
+                            mesh.normals = ensure(mesh.normals, mesh.normalCount * 3 + 3);
+                            readFloats(parts, mesh.normals, mesh.normalCount * 3, 3);
+                            mesh.normalCount++;
+                            break;
+                        case "f":
+                            int cornerCount = parts.length - 1;
+                            if (cornerCount < 3) {
+                                throw new IOException("face with fewer than 3 corners");
+                            }
+                            if (polygon.length < cornerCount * 3) {
+                                polygon = new int[cornerCount * 3];
+                            }
+                            for (int i = 0; i < cornerCount; i++) {
+                                mesh.readCorner(parts[i + 1], polygon, i * 3);
+                            }
+                            // Fan triangulation, the exports only have convex polygons.
+                            for (int i = 1; i < cornerCount - 1; i++) {
+                                mesh.addTriangle(polygon, 0, i * 3, (i + 1) * 3, currentMaterial);
+                            }
+                            break;
+                        case "usemtl":
+                            currentMaterial =
+                                    mesh.materialIndex(line.substring(parts[0].length()).trim(), materialIndices);
+                            break;
+                        case "mtllib":
+                            mesh.materialLibrary = line.substring(parts[0].length()).trim();
+                            break;
+                        default:
+                            // Groups, objects, smoothing groups and lines are not used by Sceneform.
+                            break;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return mesh;
+    }
+
+    public void write(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.ISO_8859_1))) {
+            writer.println("# Generated by the optimizeModels task, do not edit.");
+            writer.println("# " + positionCount + " vertices, " + triangleCount + " triangles");
+            if (materialLibrary != null) {
+                writer.println("mtllib " + materialLibrary);
+            }
+            for (int i = 0; i < positionCount; i++) {
+                writer.println("v " + format(positions[i * 3]) + " " + format(positions[i * 3 + 1]) + " " + format(positions[i * 3 + 2]));
+            }
+            for (int i = 0; i < texCoordCount; i++) {
+                writer.println("vt " + format(texCoords[i * 2]) + " " + format(texCoords[i * 2 + 1]));
+            }
+            for (int i = 0; i < normalCount; i++) {
+                writer.println("vn " + format(normals[i * 3]) + " " + format(normals[i * 3 + 1]) + " " + format(normals[i * 3 + 2]));
+            }
+            int material = -1;
+            StringBuilder face = new StringBuilder();
+            for (int i = 0; i < triangleCount; i++) {
+                if (triangleMaterials[i] != material) {
+                    material = triangleMaterials[i];
+                    if (!materials.get(material).equals(NO_MATERIAL)) {
+                        writer.println("usemtl " + materials.get(material));
+                    }
+                }
+                face.setLength(0);
+                face.append('f');
+                for (int c = i * 3; c < i * 3 + 3; c++) {
+                    face.append(' ').append(cornerPositions[c] + 1);
+                    if (cornerTexCoords[c] >= 0 || cornerNormals[c] >= 0) {
+                        face.append('/');
+                        if (cornerTexCoords[c] >= 0) {
+                            face.append(cornerTexCoords[c] + 1);
+                        }
+                        if (cornerNormals[c] >= 0) {
+                            face.append('/').append(cornerNormals[c] + 1);
+                        }
+                    }
+                }
+                writer.println(face);
+            }
+        }
+    }
+
+    public ObjMesh copy() {
+        ObjMesh copy = new ObjMesh();
+        copy.materialLibrary = materialLibrary;
+        copy.positions = Arrays.copyOf(positions, positionCount * 3);
+        copy.positionCount = positionCount;
+        copy.texCoords = Arrays.copyOf(texCoords, texCoordCount * 2);
+        copy.texCoordCount = texCoordCount;
+        copy.normals = Arrays.copyOf(normals, normalCount * 3);
+        copy.normalCount = normalCount;
+        copy.cornerPositions = Arrays.copyOf(cornerPositions, triangleCount * 3);
+        copy.cornerTexCoords = Arrays.copyOf(cornerTexCoords, triangleCount * 3);
+        copy.cornerNormals = Arrays.copyOf(cornerNormals, triangleCount * 3);
+        copy.triangleMaterials = Arrays.copyOf(triangleMaterials, triangleCount);
+        copy.triangleCount = triangleCount;
+        copy.materials.addAll(materials);
+        return copy;
+    }
+
+    // Merges positions, texture coordinates and normals that are exactly the same (exporters write one
+    // per face corner), and drops triangles that have collapsed to a line or a point.
+    public void deduplicate() {
+        int[] positionMap = deduplicate(positions, positionCount, 3);
+        positionCount = countUnique(positionMap);
+        int[] texCoordMap = deduplicate(texCoords, texCoordCount, 2);
+        texCoordCount = countUnique(texCoordMap);
+        int[] normalMap = deduplicate(normals, normalCount, 3);
+        normalCount = countUnique(normalMap);
+        for (int c = 0; c < triangleCount * 3; c++) {
+            cornerPositions[c] = positionMap[cornerPositions[c]];
+            if (cornerTexCoords[c] >= 0) {
+                cornerTexCoords[c] = texCoordMap[cornerTexCoords[c]];
+            }
+            if (cornerNormals[c] >= 0) {
+                cornerNormals[c] = normalMap[cornerNormals[c]];
+            }
+        }
+        boolean[] keep = new boolean[triangleCount];
+        for (int i = 0; i < triangleCount; i++) {
+            int a = cornerPositions[i * 3];
+            int b = cornerPositions[i * 3 + 1];
+            int c = cornerPositions[i * 3 + 2];
+            keep[i] = a != b && b != c && a != c;
+        }
+        retainTriangles(keep);
+        compact();
+    }
+
+    // Merges materials whose properties are the same, keeping the name of the first one, and orders the
+    // triangles by material so every material is drawn in one go.
+    public void mergeMaterials(MtlLibrary library) {
+        Map<String, Integer> bySignature = new HashMap<>();
+        int[] materialMap = new int[materials.size()];
+        for (int i = 0; i < materials.size(); i++) {
+            String signature = library.signature(materials.get(i));
+            if (signature == null) {
+                // Not in the library, keep it as it is.
+                signature = "\u0000" + materials.get(i);
+            }
+            Integer first = bySignature.get(signature);
+            if (first == null) {
+                bySignature.put(signature, i);
+                first = i;
+            }
+            materialMap[i] = first;
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            triangleMaterials[i] = materialMap[triangleMaterials[i]];
+        }
+        sortTrianglesByMaterial();
+    }
+
+    // Replaces the normals by one normal per face, for flat shaded meshes that were simplified.
+    public void recomputeFlatNormals() {
+        float[] faceNormals = new float[triangleCount * 3];
+        for (int i = 0; i < triangleCount; i++) {
+            faceNormal(cornerPositions[i * 3], cornerPositions[i * 3 + 1], cornerPositions[i * 3 + 2], faceNormals, i * 3);
+        }
+        int[] normalMap = deduplicate(faceNormals, triangleCount, 3);
+        normals = faceNormals;
+        normalCount = countUnique(normalMap);
+        for (int i = 0; i < triangleCount; i++) {
+            for (int c = i * 3; c < i * 3 + 3; c++) {
+                cornerNormals[c] = normalMap[i];
+            }
+        }
+    }
+
+    // Normalized normal of the triangle abc (positions), written to out at offset. Zero for degenerate triangles.
+    void faceNormal(int a, int b, int c, float[] out, int offset) {
+        float ux = positions[b * 3] - positions[a * 3];
+        float uy = positions[b * 3 + 1] - positions[a * 3 + 1];
+        float uz = positions[b * 3 + 2] - positions[a * 3 + 2];
+        float vx = positions[c * 3] - positions[a * 3];
+        float vy = positions[c * 3 + 1] - positions[a * 3 + 1];
+        float vz = positions[c * 3 + 2] - positions[a * 3 + 2];
+        float nx = uy * vz - uz * vy;
+        float ny = uz * vx - ux * vz;
+        float nz = ux * vy - uy * vx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        out[offset] = nx;
+        out[offset + 1] = ny;
+        out[offset + 2] = nz;
+    }
+
+    // Keeps the triangles for which keep is true, in order.
+    void retainTriangles(boolean[] keep) {
+        int count = 0;
+        for (int i = 0; i < triangleCount; i++) {
+            if (!keep[i]) {
+                continue;
+            }
+            System.arraycopy(cornerPositions, i * 3, cornerPositions, count * 3, 3);
+            System.arraycopy(cornerTexCoords, i * 3, cornerTexCoords, count * 3, 3);
+            System.arraycopy(cornerNormals, i * 3, cornerNormals, count * 3, 3);
+            triangleMaterials[count] = triangleMaterials[i];
+            count++;
+        }
+        triangleCount = count;
+    }
+
+    // Drops the positions, texture coordinates and normals no triangle uses anymore.
+    void compact() {
+        positionCount = compact(positions, positionCount, 3, cornerPositions);
+        texCoordCount = compact(texCoords, texCoordCount, 2, cornerTexCoords);
+        normalCount = compact(normals, normalCount, 3, cornerNormals);
+    }
+
+    private int compact(float[] values, int count, int size, int[] corners) {
+        int[] map = new int[count];
+        Arrays.fill(map, -1);
+        int used = 0;
+        for (int c = 0; c < triangleCount * 3; c++) {
+            int index = corners[c];
+            if (index < 0) {
+                continue;
+            }
+            if (map[index] < 0) {
+                map[index] = used++;
+            }
+            corners[c] = map[index];
+        }
+        // New indices are handed out in order of first use, so values only ever move to lower indices.
+        float[] source = Arrays.copyOf(values, count * size);
+        for (int i = 0; i < count; i++) {
+            if (map[i] >= 0) {
+                System.arraycopy(source, i * size, values, map[i] * size, size);
+            }
+        }
+        return used;
+    }
+
+    private void sortTrianglesByMaterial() {
+        Integer[] order = new Integer[triangleCount];
+        for (int i = 0; i < triangleCount; i++) {
+            order[i] = i;
+        }
+        // Stable, so the triangles of a material stay in their original order.
+        Arrays.sort(order, (a, b) -> Integer.compare(triangleMaterials[a], triangleMaterials[b]));
+        int[] sortedPositions = new int[triangleCount * 3];
+        int[] sortedTexCoords = new int[triangleCount * 3];
+        int[] sortedNormals = new int[triangleCount * 3];
+        int[] sortedMaterials = new int[triangleCount];
+        for (int i = 0; i < triangleCount; i++) {
+            int source = order[i];
+            System.arraycopy(cornerPositions, source * 3, sortedPositions, i * 3, 3);
+            System.arraycopy(cornerTexCoords, source * 3, sortedTexCoords, i * 3, 3);
+            System.arraycopy(cornerNormals, source * 3, sortedNormals, i * 3, 3);
+            sortedMaterials[i] = triangleMaterials[source];
+        }
+        cornerPositions = sortedPositions;
+        cornerTexCoords = sortedTexCoords;
+        cornerNormals = sortedNormals;
+        triangleMaterials = sortedMaterials;
+    }
+
+    private int materialIndex(String name, Map<String, Integer> materialIndices) {
+        Integer index = materialIndices.get(name);
+        if (index == null) {
+            index = materials.size();
+            materials.add(name);
+            materialIndices.put(name, index);
+        }
+        return index;
+    }
+
+    // Parses a face corner (v, v/vt, v//vn or v/vt/vn, 1-based or negative) into out at offset.
+    private void readCorner(String corner, int[] out, int offset) throws IOException {
+        String[] indices = corner.split("/", -1);
+        out[offset] = index(indices[0], positionCount);
+        out[offset + 1] = indices.length > 1 && !indices[1].isEmpty() ? index(indices[1], texCoordCount) : -1;
+        out[offset + 2] = indices.length > 2 && !indices[2].isEmpty() ? index(indices[2], normalCount) : -1;
+    }
+
+    private static int index(String field, int count) throws IOException {
+        int index = Integer.parseInt(field);
+        index = index < 0 ? count + index : index - 1;
+        if (index < 0 || index >= count) {
+            throw new IOException("index " + field + " out of range");
+        }
+        return index;
+    }
+
+    private void addTriangle(int[] polygon, int a, int b, int c, int material) {
+        cornerPositions = ensure(cornerPositions, triangleCount * 3 + 3);
+        cornerTexCoords = ensure(cornerTexCoords, triangleCount * 3 + 3);
+        cornerNormals = ensure(cornerNormals, triangleCount * 3 + 3);
+        triangleMaterials = ensure(triangleMaterials, triangleCount + 1);
+        int corner = triangleCount * 3;
+        for (int offset : new int[] {a, b, c}) {
+            cornerPositions[corner] = polygon[offset];
+            cornerTexCoords[corner] = polygon[offset + 1];
+            cornerNormals[corner] = polygon[offset + 2];
+            corner++;
+        }
+        triangleMaterials[triangleCount] = material;
+        triangleCount++;
+    }
+
+    // Maps every value (of size floats) to the first value that is bit for bit the same, and packs the
+    // unique values at the front of the array. Returns the map.
+    private static int[] deduplicate(float[] values, int count, int size) {
+        Map<ValueKey, Integer> unique = new LinkedHashMap<>();
+        int[] map = new int[count];
+        for (int i = 0; i < count; i++) {
+            ValueKey key = new ValueKey(values, i * size, size);
+            Integer index = unique.get(key);
+            if (index == null) {
+                index = unique.size();
+                unique.put(key, index);
+                System.arraycopy(values, i * size, values, index * size, size);
+                // The key now refers to the packed copy.
+                key.offset = index * size;
+            }
+            map[i] = index;
+        }
+        return map;
+    }
+
+    private static int countUnique(int[] map) {
+        int max = -1;
+        for (int index : map) {
+            max = Math.max(max, index);
+        }
+        return max + 1;
+    }
+
+    private static void readFloats(String[] parts, float[] out, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            // vt lines may omit v, vn and v lines always have all components.
+            out[offset + i] = i + 1 < parts.length ? Float.parseFloat(parts[i + 1]) : 0;
+        }
+    }
+
+    private static String format(float value) {
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        String text = String.format(Locale.ROOT, "%.6f", value);
+        // Trailing zeros make up a good part of the file size.
+        int end = text.length();
+        while (text.charAt(end - 1) == '0') {
+            end--;
+        }
+        if (text.charAt(end - 1) == '.') {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    private static float[] ensure(float[] array, int size) {
+        return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    // A run of floats in an array, compared by value (bit for bit, so -0 and 0 differ, which is harmless).
+    private static class ValueKey {
+        final float[] values;
+        int offset;
+        final int size;
+
+        ValueKey(float[] values, int offset, int size) {
+            this.values = values;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ValueKey)) {
+                return false;
+            }
+            ValueKey key = (ValueKey) other;
+            for (int i = 0; i < size; i++) {
+                if (Float.floatToIntBits(values[offset + i]) != Float.floatToIntBits(key.values[key.offset + i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            for (int i = 0; i < size; i++) {
+                hash = 31 * hash + Float.floatToIntBits(values[offset + i]);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives the .sfa of an optimized model from the .sfa of its source, so the converted model keeps the
+ * scale, material parameters and samplers that were set up for the source. The model file is pointed at
+ * the optimized OBJ, the materials that were merged away are dropped, and the samplers are pointed at the
+ * processed textures (see TextureProcessor).
+ *
+ * Only understands the layout the Sceneform plugin writes: two space indentation, one material per
+ * block in the materials list, and the model file as the only "file:" line at the model's level.
+ */
+public class SfaTemplate {
+
+    private static final Pattern MATERIAL_NAME = Pattern.compile("^      name: '(.*)',$");
+    private static final Pattern SAMPLER_FILE = Pattern.compile("^      file: '(.*)',$");
+
+    private SfaTemplate() {}
+
+    // The texture files of the samplers, as written in the .sfa (relative to the app module).
+    public static List<String> samplerFiles(File sfa) throws IOException {
+        List<String> files = new ArrayList<>();
+        boolean inSamplers = false;
+        for (String line : Files.readAllLines(sfa.toPath(), StandardCharsets.UTF_8)) {
+            if (line.equals("  samplers: [")) {
+                inSamplers = true;
+            } else if (inSamplers && line.equals("  ],")) {
+                inSamplers = false;
+            }
+            Matcher matcher = SAMPLER_FILE.matcher(line);
+            if (inSamplers && matcher.matches()) {
+                files.add(matcher.group(1));
+            }
+        }
+        return files;
+    }
+
+    // Whether any material of the .sfa has an opacity, i.e. blends with the alpha of its texture.
+    public static boolean usesOpacity(File sfa) throws IOException {
+        for (String line : Files.readAllLines(sfa.toPath(), StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("opacity:") && !trimmed.equals("opacity: null,")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // textures maps sampler files of the template to the files the derived .sfa samples instead.
+    public static void derive(
+            File template, File out, String modelFile, Collection<String> materials, Map<String, String> textures)
+            throws IOException {
+        List<String> lines = Files.readAllLines(template.toPath(), StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        boolean inMaterials = false;
+        boolean inModel = false;
+        boolean inSamplers = false;
+        // The texture of the sampler being copied, if it was replaced.
+        String replacedTexture = null;
+        List<String> block = null;
+        boolean keepBlock = true;
+        for (String line : lines) {
+            if (line.equals("  materials: [")) {
+                inMaterials = true;
+            } else if (inMaterials && line.equals("  ],")) {
+                inMaterials = false;
+            } else if (line.equals("  model: {")) {
+                inModel = true;
+            } else if (inModel && line.equals("  },")) {
+                inModel = false;
+            } else if (line.equals("  samplers: [")) {
+                inSamplers = true;
+            } else if (inSamplers && line.equals("  ],")) {
+                inSamplers = false;
+            }
+
+            if (inMaterials && line.equals("    {")) {
+                block = new ArrayList<>();
+                keepBlock = true;
+            }
+            if (block != null) {
+                block.add(line);
+                Matcher matcher = MATERIAL_NAME.matcher(line);
+                if (matcher.matches()) {
+                    keepBlock = materials.contains(matcher.group(1));
+                }
+                if (line.equals("    },")) {
+                    if (keepBlock) {
+                        result.addAll(block);
+                    }
+                    block = null;
+                }
+                continue;
+            }
+            if (inModel && line.startsWith("    file: ")) {
+                line = "    file: '" + modelFile + "',";
+            }
+            if (inSamplers) {
+                Matcher matcher = SAMPLER_FILE.matcher(line);
+                if (matcher.matches()) {
+                    replacedTexture = textures.get(matcher.group(1));
+                    if (replacedTexture != null) {
+                        line = "      file: '" + replacedTexture + "',";
+                    }
+                } else if (line.startsWith("      pipeline_name: ") && replacedTexture != null) {
+                    line = "      pipeline_name: '" + new File(replacedTexture).getName() + "',";
+                }
+            }
+            result.add(line);
+        }
+        Files.write(out.toPath(), result, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,167 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Prepares the textures of the models for the Sceneform converter: every texture is scaled to power of
+ * two dimensions no larger than a maximum size, so the GPU can mipmap it and no texture takes more video
+ * memory than it can show on a phone. Textures whose alpha isn't used (the material is opaque, or every
+ * pixel is opaque anyway) are written as JPEG, the others as PNG.
+ *
+ * Uses only java.awt and ImageIO (headless), so it runs on any build machine.
+ */
+public class TextureProcessor {
+
+    private static final float JPEG_QUALITY = 0.9f;
+
+    private TextureProcessor() {}
+
+    // What processing one texture did, for the report.
+    public static class Result {
+        public final File source;
+        public final File output;
+        public final int sourceWidth;
+        public final int sourceHeight;
+        public final int width;
+        public final int height;
+        public final long millis;
+
+        Result(File source, File output, int sourceWidth, int sourceHeight, int width, int height, long millis) {
+            this.source = source;
+            this.output = output;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.width = width;
+            this.height = height;
+            this.millis = millis;
+        }
+    }
+
+    public static BufferedImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException(file + ": not an image ImageIO can read");
+        }
+        return image;
+    }
+
+    // Scales the texture to power of two dimensions of at most maxSize and writes it to outputBase plus
+    // ".png" or ".jpg". keepAlpha is whether the material blends with the alpha of the texture. Returns
+    // what was written.
+    public static Result process(File source, String outputBase, int maxSize, boolean keepAlpha) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = read(source);
+        BufferedImage scaled = scale(image, powerOfTwo(image.getWidth(), maxSize), powerOfTwo(image.getHeight(), maxSize));
+        File output = write(scaled, outputBase, keepAlpha);
+        if (scaled.getWidth() == image.getWidth() && scaled.getHeight() == image.getHeight()
+                && source.length() <= output.length()) {
+            // Already a power of two, and re-encoding didn't make it smaller (e.g. a palette PNG).
+            output.delete();
+            String name = source.getName();
+            output = new File(outputBase + name.substring(name.lastIndexOf('.')));
+            Files.copy(source.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new Result(
+                source, output, image.getWidth(), image.getHeight(), scaled.getWidth(), scaled.getHeight(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    // The power of two closest to size (in ratio, so 700 becomes 512 and 800 becomes 1024), at most maxSize.
+    public static int powerOfTwo(int size, int maxSize) {
+        int power = 1;
+        while (power < size && power < maxSize) {
+            power *= 2;
+        }
+        if (power > size && (double) power / size > 2.0 * size / power) {
+            power /= 2;
+        }
+        return Math.min(power, maxSize);
+    }
+
+    // Scales the image with bilinear filtering. Large reductions go in halving steps, a single bilinear
+    // step would skip most of the source pixels.
+    public static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage current = toArgb(image);
+        while (current.getWidth() != width || current.getHeight() != height) {
+            int stepWidth = current.getWidth() / 2 >= width ? current.getWidth() / 2 : width;
+            int stepHeight = current.getHeight() / 2 >= height ? current.getHeight() / 2 : height;
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            graphics.dispose();
+            current = step;
+        }
+        return current;
+    }
+
+    // Writes the image as PNG if its alpha is kept and not opaque, as JPEG otherwise. Returns the file written.
+    public static File write(BufferedImage image, String outputBase, boolean keepAlpha) throws IOException {
+        if (keepAlpha && usesAlpha(image)) {
+            // Quality 0 is the strongest deflate level, PNG stays lossless.
+            return write(image, "png", 0f, new File(outputBase + ".png"));
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return write(rgb, "jpg", JPEG_QUALITY, new File(outputBase + ".jpg"));
+    }
+
+    private static File write(BufferedImage image, String format, float quality, File output) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        // The PNG writer of Java 8 has no compression settings.
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        output.delete();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output;
+    }
+
+    private static boolean usesAlpha(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return false;
+        }
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) >>> 24) != 0xff) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = argb.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return argb;
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class MeshSimplifierTest {
+
+    // Quads per side of the test grids, 2 * SIZE * SIZE triangles.
+    private static final int SIZE = 16;
+
+    @Test
+    public void staysWithinTheTriangleBudget() throws IOException {
+        ObjMesh grid = grid(false);
+        for (int target : new int[] {400, 256, 128}) {
+            ObjMesh simplified = MeshSimplifier.simplify(grid, target);
+            assertTrue(target + ": " + simplified.getTriangleCount(), simplified.getTriangleCount() <= target);
+            assertTrue(simplified.getTriangleCount() > 0);
+        }
+    }
+
+    @Test
+    public void leavesTheSourceAlone() throws IOException {
+        ObjMesh grid = grid(false);
+        MeshSimplifier.simplify(grid, 128);
+        assertEquals(2 * SIZE * SIZE, grid.getTriangleCount());
+        assertEquals((SIZE + 1) * (SIZE + 1), grid.getPositionCount());
+    }
+
+    @Test
+    public void keepsBorderPositions() throws IOException {
+        ObjMesh simplified = MeshSimplifier.simplify(grid(false), 1);
+        Set<String> positions = usedPositions(simplified);
+        for (int i = 0; i <= SIZE; i++) {
+            assertTrue(positions.contains(key(i, 0)));
+            assertTrue(positions.contains(key(i, SIZE)));
+            assertTrue(positions.contains(key(0, i)));
+            assertTrue(positions.contains(key(SIZE, i)));
+        }
+        // Everything inside could go.
+        assertTrue(positions.size() < (SIZE + 1) * (SIZE + 1));
+    }
+
+    @Test
+    public void keepsTextureSeamPositions() throws IOException {
+        ObjMesh simplified = MeshSimplifier.simplify(grid(true), 1);
+        Set<String> positions = usedPositions(simplified);
+        for (int z = 0; z <= SIZE; z++) {
+            assertTrue(positions.contains(key(SIZE / 2, z)));
+        }
+    }
+
+    // A flat, flat shaded grid in the xz plane. With a seam, the two halves have their own texture
+    // coordinates along the middle column, like a texture atlas split.
+    private static ObjMesh grid(boolean seam) throws IOException {
+        StringBuilder obj = new StringBuilder();
+        for (int z = 0; z <= SIZE; z++) {
+            for (int x = 0; x <= SIZE; x++) {
+                obj.append("v ").append(x).append(" 0 ").append(z).append('\n');
+            }
+        }
+        for (int z = 0; z <= SIZE; z++) {
+            for (int x = 0; x <= SIZE; x++) {
+                obj.append("vt ").append(x / (float) SIZE).append(' ').append(z / (float) SIZE).append('\n');
+            }
+        }
+        // The right half of the seam column.
+        for (int z = 0; z <= SIZE; z++) {
+            obj.append("vt 0 ").append(z / (float) SIZE).append('\n');
+        }
+        obj.append("vn 0 1 0\n");
+        for (int z = 0; z < SIZE; z++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean rightHalf = seam && x >= SIZE / 2;
+                String a = corner(x, z, rightHalf);
+                String b = corner(x + 1, z, rightHalf);
+                String c = corner(x + 1, z + 1, rightHalf);
+                String d = corner(x, z + 1, rightHalf);
+                obj.append("f ").append(a).append(' ').append(d).append(' ').append(c).append('\n');
+                obj.append("f ").append(a).append(' ').append(c).append(' ').append(b).append('\n');
+            }
+        }
+        File file = File.createTempFile("grid", ".obj");
+        file.deleteOnExit();
+        Files.write(file.toPath(), obj.toString().getBytes(StandardCharsets.ISO_8859_1));
+        ObjMesh mesh = ObjMesh.read(file);
+        mesh.deduplicate();
+        return mesh;
+    }
+
+    private static String corner(int x, int z, boolean rightHalf) {
+        int position = z * (SIZE + 1) + x + 1;
+        int texCoord = rightHalf && x == SIZE / 2 ? (SIZE + 1) * (SIZE + 1) + z + 1 : position;
+        return position + "/" + texCoord + "/1";
+    }
+
+    private static Set<String> usedPositions(ObjMesh mesh) {
+        Set<String> used = new HashSet<>();
+        for (int c = 0; c < mesh.getTriangleCount() * 3; c++) {
+            int p = mesh.cornerPositions[c];
+            used.add(key(Math.round(mesh.positions[p * 3]), Math.round(mesh.positions[p * 3 + 2])));
+        }
+        return used;
+    }
+
+    private static String key(int x, int z) {
+        return x + "," + z;
+    }
+}
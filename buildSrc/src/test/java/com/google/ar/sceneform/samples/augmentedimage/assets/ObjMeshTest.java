@@ -0,0 +1,108 @@
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ObjMeshTest {
+
+    // Two materials, a quad, and corners with and without texture coordinates and normals.
+    private static final String OBJ =
+            "# exported\n"
+                    + "mtllib model.mtl\n"
+                    + "v 0 0 0\n"
+                    + "v 1 0 0\n"
+                    + "v 1 1 0\n"
+                    + "v 0 1 0\n"
+                    + "v 0.5 1.5 0.25\n"
+                    + "vt 0 0\n"
+                    + "vt 1 0\n"
+                    + "vt 1 1\n"
+                    + "vt 0 1\n"
+                    + "vn 0 0 1\n"
+                    + "g body\n"
+                    + "s 1\n"
+                    + "usemtl red\n"
+                    + "f 1/1/1 2/2/1 3/3/1 4/4/1\n"
+                    + "usemtl blue\n"
+                    + "f 4//1 3//1 5//1\n"
+                    + "f 3 4 5\n";
+
+    @Test
+    public void readTriangulatesPolygonsAndKeepsMaterials() throws IOException {
+        ObjMesh mesh = ObjMesh.read(file(OBJ));
+        assertEquals("model.mtl", mesh.materialLibrary);
+        assertEquals(5, mesh.getPositionCount());
+        assertEquals(4, mesh.getTriangleCount());
+        assertEquals(Arrays.asList("red", "blue"), mesh.getUsedMaterials());
+        // The quad is split into a fan around its first corner.
+        assertArrayEquals(new int[] {0, 1, 2, 0, 2, 3, 3, 2, 4, 2, 3, 4}, Arrays.copyOf(mesh.cornerPositions, 12));
+        assertArrayEquals(new int[] {0, 1, 2, 0, 2, 3, -1, -1, -1, -1, -1, -1}, Arrays.copyOf(mesh.cornerTexCoords, 12));
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1, -1}, Arrays.copyOf(mesh.cornerNormals, 12));
+    }
+
+    @Test
+    public void writeThenReadGivesTheSameMesh() throws IOException {
+        ObjMesh mesh = ObjMesh.read(file(OBJ));
+        File written = File.createTempFile("written", ".obj");
+        written.deleteOnExit();
+        mesh.write(written);
+        ObjMesh read = ObjMesh.read(written);
+
+        assertEquals(mesh.materialLibrary, read.materialLibrary);
+        assertEquals(mesh.getPositionCount(), read.getPositionCount());
+        assertEquals(mesh.texCoordCount, read.texCoordCount);
+        assertEquals(mesh.normalCount, read.normalCount);
+        assertEquals(mesh.getTriangleCount(), read.getTriangleCount());
+        assertArrayEquals(Arrays.copyOf(mesh.positions, mesh.positionCount * 3), Arrays.copyOf(read.positions, read.positionCount * 3), 0);
+        assertArrayEquals(Arrays.copyOf(mesh.texCoords, mesh.texCoordCount * 2), Arrays.copyOf(read.texCoords, read.texCoordCount * 2), 0);
+        assertArrayEquals(Arrays.copyOf(mesh.normals, mesh.normalCount * 3), Arrays.copyOf(read.normals, read.normalCount * 3), 0);
+        int corners = mesh.triangleCount * 3;
+        assertArrayEquals(Arrays.copyOf(mesh.cornerPositions, corners), Arrays.copyOf(read.cornerPositions, corners));
+        assertArrayEquals(Arrays.copyOf(mesh.cornerTexCoords, corners), Arrays.copyOf(read.cornerTexCoords, corners));
+        assertArrayEquals(Arrays.copyOf(mesh.cornerNormals, corners), Arrays.copyOf(read.cornerNormals, corners));
+        assertEquals(mesh.getUsedMaterials(), read.getUsedMaterials());
+
+        // Writing what was read back gives the same file.
+        File rewritten = File.createTempFile("rewritten", ".obj");
+        rewritten.deleteOnExit();
+        read.write(rewritten);
+        assertArrayEquals(Files.readAllBytes(written.toPath()), Files.readAllBytes(rewritten.toPath()));
+    }
+
+    @Test
+    public void deduplicateMergesRepeatedAttributesAndDropsDegenerateTriangles() throws IOException {
+        // Every corner written with its own position, texture coordinate and normal, as the exporters do,
+        // and a triangle that collapses to a line once its positions are merged.
+        ObjMesh mesh =
+                ObjMesh.read(
+                        file(
+                                "v 0 0 0\nv 1 0 0\nv 1 1 0\n"
+                                        + "v 0 0 0\nv 1 1 0\nv 0 1 0\n"
+                                        + "v 0 0 0\nv 1 1 0\nv 1 1 0\n"
+                                        + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 0\nvt 1 1\nvt 0 1\nvt 0 0\nvt 1 1\nvt 1 1\n"
+                                        + "vn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\nvn 0 0 1\n"
+                                        + "f 1/1/1 2/2/2 3/3/3\nf 4/4/4 5/5/5 6/6/6\nf 7/7/7 8/8/8 9/9/9\n"));
+        mesh.deduplicate();
+        assertEquals(4, mesh.getPositionCount());
+        assertEquals(4, mesh.texCoordCount);
+        assertEquals(1, mesh.normalCount);
+        assertEquals(2, mesh.getTriangleCount());
+        // The two triangles share the diagonal.
+        assertEquals(mesh.cornerPositions[0], mesh.cornerPositions[3]);
+        assertEquals(mesh.cornerPositions[2], mesh.cornerPositions[4]);
+    }
+
+    private static File file(String content) throws IOException {
+        File file = File.createTempFile("mesh", ".obj");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+}